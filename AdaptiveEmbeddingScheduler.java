@@ -0,0 +1,210 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Runs embedding requests on virtual threads and caps how many are in flight with an AIMD
+// (additive-increase / multiplicative-decrease) limit. Latency is measured per text, so batches
+// of different sizes compare, and smoothed over the last few requests, so one unusually fast or
+// slow request does not decide anything. The baseline is the lowest smoothed latency seen over
+// the last one or two windows of BASELINE_WINDOW requests: latency that creeps up as the limit
+// grows cannot drag the baseline along, while a lasting change (another model, a busier host)
+// is picked up once a whole window has gone by without the old minimum.
+// While the smoothed latency stays within latencyTolerance times the baseline, each request
+// raises the limit by 1/limit, which adds about one slot per round of requests. An error or
+// higher latency multiplies the limit by backoffRatio. Small batches (under half the client's
+// batch size) are dominated by per-request overhead, so their latency is not sampled. At most
+// one decrease happens per round, so a burst of slow responses to requests that were already
+// queued does not collapse the limit.
+public class AdaptiveEmbeddingScheduler implements AutoCloseable {
+    // Weight of each new sample in the smoothed latency; about the last 5 requests dominate it
+    private static final double LATENCY_WEIGHT = 0.2;
+    // Requests per baseline window
+    private static final int BASELINE_WINDOW = 500;
+
+    private final OllamaEmbeddingClient client;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private double latencyNanos;
+    // Minimum smoothed latency of the previous window and of the current one; 0 until sampled
+    private double previousMinNanos;
+    private double windowMinNanos;
+    private int windowSamples;
+    private long lastDecreaseNanos = Long.MIN_VALUE;
+    private long requests;
+    private long failures;
+
+    public AdaptiveEmbeddingScheduler(OllamaEmbeddingClient client, int minLimit, int initialLimit, int maxLimit) {
+        this(client, minLimit, initialLimit, maxLimit, 0.7, 2.0);
+    }
+
+    public AdaptiveEmbeddingScheduler(OllamaEmbeddingClient client, int minLimit, int initialLimit, int maxLimit,
+                                      double backoffRatio, double latencyTolerance) {
+        this.client = client;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Embeds the texts, one client batch per virtual thread, and returns vectors in input order
+    public List<float[]> embed(List<String> texts) throws IOException {
+        int batchSize = client.getBatchSize();
+        if (texts.size() <= batchSize) {
+            return embedBatch(texts);
+        }
+
+        List<Future<List<float[]>>> futures = new ArrayList<>();
+        for (int start = 0; start < texts.size(); start += batchSize) {
+            List<String> batch = texts.subList(start, Math.min(texts.size(), start + batchSize));
+            futures.add(submit(batch));
+        }
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        try {
+            for (Future<List<float[]>> future : futures) {
+                vectors.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for embeddings");
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        return vectors;
+    }
+
+    // Embeds one batch on its own virtual thread; it waits there for a slot under the current limit
+    public Future<List<float[]>> submit(List<String> batch) {
+        return executor.submit(() -> embedBatch(batch));
+    }
+
+    private List<float[]> embedBatch(List<String> texts) throws IOException {
+        long start = acquire();
+        boolean success = false;
+        try {
+            List<float[]> vectors = client.embed(texts);
+            success = true;
+            return vectors;
+        } finally {
+            release(start, texts.size(), success);
+        }
+    }
+
+    private long acquire() throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                permitReleased.await();
+            }
+            inFlight++;
+            return System.nanoTime();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an embedding slot");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long startNanos, int texts, boolean success) {
+        double latency = (double) (System.nanoTime() - startNanos) / Math.max(1, texts);
+        lock.lock();
+        try {
+            inFlight--;
+            requests++;
+            boolean overloaded = !success;
+            if (success && texts * 2 >= client.getBatchSize()) {
+                latencyNanos = latencyNanos == 0 ? latency : latencyNanos + (latency - latencyNanos) * LATENCY_WEIGHT;
+                double baseline = baselineNanos();
+                overloaded = baseline > 0 && latencyNanos > baseline * latencyTolerance;
+                sampleBaseline(latencyNanos);
+            } else if (!success) {
+                failures++;
+            }
+
+            if (overloaded) {
+                if (startNanos > lastDecreaseNanos) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecreaseNanos = System.nanoTime();
+                }
+            } else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double baselineNanos() {
+        if (previousMinNanos == 0) {
+            return windowMinNanos;
+        }
+        return windowMinNanos == 0 ? previousMinNanos : Math.min(previousMinNanos, windowMinNanos);
+    }
+
+    private void sampleBaseline(double latency) {
+        windowMinNanos = windowMinNanos == 0 ? latency : Math.min(windowMinNanos, latency);
+        if (++windowSamples >= BASELINE_WINDOW) {
+            previousMinNanos = windowMinNanos;
+            windowMinNanos = 0;
+            windowSamples = 0;
+        }
+    }
+
+    public String report() {
+        lock.lock();
+        try {
+            return String.format("concurrency limit %d (in flight %d), %d requests, %d failed, baseline latency %.3f ms per text",
+                    (int) limit, inFlight, requests, failures, baselineNanos() / 1e6);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
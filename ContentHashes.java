@@ -0,0 +1,71 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Rows are keyed by a SHA-256 of the embedding model and the text, so the same text
+// embedded by the same model is only ever stored (and paid for) once.
+public final class ContentHashes {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentHashes() {
+    }
+
+    public static String of(String model, String text) {
+        MessageDigest digest = sha256();
+        digest.update(model.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        return toHex(digest.digest());
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    // Which of the given hashes are already in the embeddings table, in one indexed lookup
+    public static Set<String> existing(Connection conn, List<String> hashes) throws SQLException {
+        Set<String> found = new HashSet<>();
+        if (hashes.isEmpty()) {
+            return found;
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT content_hash FROM embeddings WHERE content_hash IN (");
+        for (int i = 0; i < hashes.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < hashes.size(); i++) {
+                stmt.setString(i + 1, hashes.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    found.add(rs.getString(1));
+                }
+            }
+        }
+        return found;
+    }
+}
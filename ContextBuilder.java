@@ -0,0 +1,147 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+// Assembles the retrieved rows into prompt context under a token budget. Each row is projected
+// to a compact "column: value" line without blank or id columns, rows that are near-duplicates
+// of a better-scored row are dropped, and the rest are added best score first until the budget
+// is spent. Tokens are estimated at four characters each, which is close enough for English
+// text with Ollama's tokenizers to keep the prompt size under control.
+public class ContextBuilder {
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}.]+");
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final int tokenBudget;
+    private final double duplicateThreshold;
+    private final Predicate<String> columnFilter;
+    private final List<Row> rows = new ArrayList<>();
+
+    private int included;
+    private int duplicates;
+    private int overBudget;
+    private int usedTokens;
+
+    public ContextBuilder(int tokenBudget) {
+        this(tokenBudget, 0.9, ContextBuilder::isUsefulColumn);
+    }
+
+    // duplicateThreshold is the Jaccard similarity of the rows' word sets at or above which the
+    // lower-scored row is dropped; columnFilter decides which columns are worth sending
+    public ContextBuilder(int tokenBudget, double duplicateThreshold, Predicate<String> columnFilter) {
+        this.tokenBudget = tokenBudget;
+        this.duplicateThreshold = duplicateThreshold;
+        this.columnFilter = columnFilter;
+    }
+
+    // Identifiers and bookkeeping columns mean nothing to the model
+    public static boolean isUsefulColumn(String column) {
+        String name = column.toLowerCase(Locale.ROOT);
+        return !(name.equals("id") || name.endsWith("_id") || name.startsWith("fdc_id") || name.endsWith("_date"));
+    }
+
+    public void add(Map<String, String> fields, float score) {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            String value = field.getValue();
+            if (value == null || value.isBlank() || !columnFilter.test(field.getKey())) {
+                continue;
+            }
+            if (line.length() > 0) {
+                line.append("; ");
+            }
+            line.append(field.getKey().replace('_', ' ')).append(": ").append(value.trim());
+        }
+        if (line.length() > 0) {
+            rows.add(new Row(line.toString(), score, rows.size()));
+        }
+    }
+
+    // For rows that are already plain text, such as the stored CSV lines in the embeddings table
+    public void addLine(String line, float score) {
+        if (line != null && !line.isBlank()) {
+            rows.add(new Row(line.trim(), score, rows.size()));
+        }
+    }
+
+    public String build() {
+        included = 0;
+        duplicates = 0;
+        overBudget = 0;
+        usedTokens = 0;
+        List<Row> ordered = new ArrayList<>(rows);
+        ordered.sort(Comparator.comparingDouble((Row row) -> row.score).reversed().thenComparingInt(row -> row.order));
+
+        StringBuilder context = new StringBuilder();
+        List<Set<String>> kept = new ArrayList<>();
+        for (Row row : ordered) {
+            Set<String> words = words(row.line);
+            if (isNearDuplicate(words, kept)) {
+                duplicates++;
+                continue;
+            }
+            int tokens = estimateTokens(row.line) + 1;
+            if (usedTokens + tokens > tokenBudget) {
+                // A shorter, lower-scored row may still fit
+                overBudget++;
+                continue;
+            }
+            context.append("- ").append(row.line).append('\n');
+            kept.add(words);
+            usedTokens += tokens;
+            included++;
+        }
+        return context.toString();
+    }
+
+    public static int estimateTokens(String text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    // Summary of the last build()
+    public String report() {
+        return String.format("Context: %d of %d rows, %d near-duplicates dropped, %d over budget, ~%d of %d tokens",
+                included, rows.size(), duplicates, overBudget, usedTokens, tokenBudget);
+    }
+
+    private boolean isNearDuplicate(Set<String> words, List<Set<String>> kept) {
+        for (Set<String> other : kept) {
+            int common = 0;
+            for (String word : words) {
+                if (other.contains(word)) {
+                    common++;
+                }
+            }
+            int union = words.size() + other.size() - common;
+            if (union == 0 || common / (double) union >= duplicateThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> words(String line) {
+        Set<String> words = new HashSet<>();
+        WORD.matcher(line.toLowerCase(Locale.ROOT)).results().forEach(match -> words.add(match.group()));
+        return words;
+    }
+
+    private static final class Row {
+        final String line;
+        final float score;
+        final int order;
+
+        Row(String line, float score, int order) {
+            this.line = line;
+            this.score = score;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU cache of text -> embedding with an optional time-to-live, placed in front of the
+// embedding client so repeated queries skip the model round trip. Entries are kept in access
+// order; the least recently used one is evicted once maxEntries is reached, and entries older
+// than the TTL are treated as misses. Vectors are copied on the way in and out, so callers may
+// modify what they get back.
+public class EmbeddingCache {
+    public interface Loader {
+        float[] embed(String text) throws IOException;
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    // ttlSeconds <= 0 keeps entries until they are evicted
+    public EmbeddingCache(int maxEntries, long ttlSeconds) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = ttlSeconds > 0 ? ttlSeconds * 1_000_000_000L : Long.MAX_VALUE;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // Returns the cached embedding or loads and caches it. The loader runs outside the lock, so
+    // two threads missing on the same text may both call it; the later result wins. Empty
+    // vectors (failed embeddings) are not cached.
+    public float[] get(String text, Loader loader) throws IOException {
+        synchronized (this) {
+            Entry entry = entries.get(text);
+            if (entry != null) {
+                if (System.nanoTime() - entry.createdNanos < ttlNanos) {
+                    hits++;
+                    return entry.vector.clone();
+                }
+                entries.remove(text);
+                expirations++;
+            }
+            misses++;
+        }
+
+        float[] vector = loader.embed(text);
+        if (vector.length > 0) {
+            put(text, vector);
+        }
+        return vector;
+    }
+
+    public synchronized void put(String text, float[] vector) {
+        entries.put(text, new Entry(vector.clone(), System.nanoTime()));
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : hits / (double) lookups;
+    }
+
+    public synchronized String report() {
+        return String.format("Query embedding cache: %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evicted, %d expired",
+                entries.size(), maxEntries, hits, misses, getHitRate() * 100, evictions, expirations);
+    }
+
+    private static final class Entry {
+        final float[] vector;
+        final long createdNanos;
+
+        Entry(float[] vector, long createdNanos) {
+            this.vector = vector;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
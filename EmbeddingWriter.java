@@ -0,0 +1,199 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Bulk writer for the embeddings table. One prepared statement is reused for every row,
+// rows are sent with addBatch/executeBatch and committed by flush(), which the caller invokes
+// once isBatchFull() reports commitSize pending rows, so the database syncs once per batch
+// instead of once per row. Only the caller flushes or rolls back, so it decides where commits
+// fall (the pipeline keeps them on chunk boundaries, where its journal can record them).
+// Rows whose content hash is already stored are ignored by the unique index rather than
+// failing the batch. With an IvfIndex the new rows are assigned to their partitions in the
+// same transaction, so the index never misses a committed row.
+public class EmbeddingWriter implements AutoCloseable {
+    private static final String INSERT_SQL = "INSERT OR IGNORE INTO embeddings (id, text, content_hash, vector, dim, norm) VALUES (?, ?, ?, ?, ?, ?)";
+
+    public interface CommitListener {
+        void onCommitted(int id, float[] vector);
+    }
+
+    private final Connection conn;
+    private final int commitSize;
+    private final CommitListener listener;
+    private final IvfIndex ivf;
+    private final PreparedStatement insert;
+    private final boolean previousAutoCommit;
+    private final String previousSynchronous;
+    private final List<float[]> pendingVectors = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private int nextId;
+    private int firstPendingId;
+    private long rowsWritten;
+    private long rowsIgnored;
+    private long commits;
+
+    public EmbeddingWriter(Connection conn, int commitSize, String bulkSynchronous, CommitListener listener) throws SQLException {
+        this(conn, commitSize, bulkSynchronous, listener, null);
+    }
+
+    public EmbeddingWriter(Connection conn, int commitSize, String bulkSynchronous, CommitListener listener,
+                           IvfIndex ivf) throws SQLException {
+        this.conn = conn;
+        this.commitSize = Math.max(1, commitSize);
+        this.listener = listener;
+        this.ivf = ivf;
+        this.previousAutoCommit = conn.getAutoCommit();
+        this.previousSynchronous = pragma("synchronous");
+
+        // WAL lets readers keep working during the load; a relaxed synchronous level
+        // avoids an fsync on every commit (the WAL still protects against corruption)
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode = WAL");
+            stmt.execute("PRAGMA synchronous = " + bulkSynchronous);
+        }
+        conn.setAutoCommit(false);
+
+        // Ids are assigned here rather than read back per row; this writer is the only one
+        this.nextId = queryInt("SELECT MAX(COALESCE((SELECT MAX(id) FROM embeddings), 0), "
+                + "COALESCE((SELECT seq FROM sqlite_sequence WHERE name = 'embeddings'), 0))") + 1;
+        this.firstPendingId = nextId;
+        this.insert = conn.prepareStatement(INSERT_SQL);
+    }
+
+    public void write(String text, String contentHash, float[] vector) throws SQLException {
+        insert.setInt(1, nextId++);
+        insert.setString(2, text);
+        insert.setString(3, contentHash);
+        insert.setBytes(4, VectorCodec.encode(vector));
+        insert.setInt(5, vector.length);
+        insert.setFloat(6, VectorCodec.norm(vector));
+        insert.addBatch();
+        pendingVectors.add(vector);
+    }
+
+    public boolean isBatchFull() {
+        return pendingVectors.size() >= commitSize;
+    }
+
+    // Also commits anything else the caller wrote on this connection, such as journal entries
+    public void flush() throws SQLException {
+        if (pendingVectors.isEmpty()) {
+            conn.commit();
+            return;
+        }
+        int[] counts;
+        try (Metrics.Sample sample = Metrics.start("db.commit").items(pendingVectors.size())) {
+            counts = insert.executeBatch();
+            if (ivf != null) {
+                appendToIvf(counts);
+            }
+            conn.commit();
+            sample.succeeded();
+        } catch (SQLException | RuntimeException e) {
+            rollback();
+            throw e;
+        }
+        commits++;
+
+        // Only announce rows once they are durable, and skip the ones ignored as duplicates.
+        // A listener failure cannot undo the commit, so it is reported and the rest are announced
+        int unannounced = 0;
+        RuntimeException listenerFailure = null;
+        for (int i = 0; i < pendingVectors.size(); i++) {
+            if (i < counts.length && counts[i] == 0) {
+                rowsIgnored++;
+                continue;
+            }
+            rowsWritten++;
+            if (listener != null) {
+                try {
+                    listener.onCommitted(firstPendingId + i, pendingVectors.get(i));
+                } catch (RuntimeException e) {
+                    unannounced++;
+                    listenerFailure = e;
+                }
+            }
+        }
+        pendingVectors.clear();
+        firstPendingId = nextId;
+        if (listenerFailure != null) {
+            System.err.println("Commit listener failed for " + unannounced + " committed rows: " + listenerFailure);
+        }
+    }
+
+    // Discards everything written since the last commit, including the caller's own statements
+    public void rollback() throws SQLException {
+        try {
+            insert.clearBatch();
+            conn.rollback();
+        } finally {
+            nextId = firstPendingId;
+            pendingVectors.clear();
+        }
+    }
+
+    private void appendToIvf(int[] counts) throws SQLException {
+        List<float[]> inserted = new ArrayList<>(pendingVectors.size());
+        int[] ids = new int[pendingVectors.size()];
+        for (int i = 0; i < pendingVectors.size(); i++) {
+            if (i >= counts.length || counts[i] != 0) {
+                ids[inserted.size()] = firstPendingId + i;
+                inserted.add(pendingVectors.get(i));
+            }
+        }
+        ivf.refresh(conn);
+        ivf.append(conn, Arrays.copyOf(ids, inserted.size()), inserted);
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public long getRowsIgnored() {
+        return rowsIgnored;
+    }
+
+    public double getRowsPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? rowsWritten / seconds : 0.0;
+    }
+
+    public String report() {
+        return String.format("%d rows in %d commits, %d duplicates ignored (%.1f rows/sec)",
+                rowsWritten, commits, rowsIgnored, getRowsPerSecond());
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            insert.close();
+            conn.setAutoCommit(previousAutoCommit);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA synchronous = " + previousSynchronous);
+            }
+        }
+    }
+
+    private String pragma(String name) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getString(1) : "";
+        }
+    }
+
+    private int queryInt(String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+// External merge sort for tab-separated lines keyed by a numeric first field. Lines are
+// collected into runs of at most runRows, each run is sorted in memory and spilled to a file,
+// and the runs are merged k-way (in several passes when there are more than MAX_FAN_IN), so
+// memory is bounded by one run whatever the input size. Equal keys keep their input order.
+public class ExternalSorter {
+    private static final int MAX_FAN_IN = 64;
+
+    private final Path spillDir;
+    private final int runRows;
+    private int runsWritten;
+
+    public ExternalSorter(Path spillDir, int runRows) {
+        this.spillDir = spillDir;
+        this.runRows = Math.max(1, runRows);
+    }
+
+    public int getRunsWritten() {
+        return runsWritten;
+    }
+
+    // The numeric key of a line: its text up to the first tab; lines without a numeric key sort first
+    public static long key(String line) {
+        int tab = line.indexOf('\t');
+        try {
+            return Long.parseLong(tab < 0 ? line : line.substring(0, tab));
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    // Consumes lines and returns them sorted by key; the caller closes the cursor
+    public Cursor sort(String name, Iterator<String> lines) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        List<String> run = new ArrayList<>(Math.min(runRows, 1 << 16));
+        while (lines.hasNext()) {
+            run.add(lines.next());
+            if (run.size() == runRows) {
+                runs.add(writeRun(name, run));
+                run.clear();
+            }
+        }
+        if (!run.isEmpty() || runs.isEmpty()) {
+            runs.add(writeRun(name, run));
+        }
+        while (runs.size() > MAX_FAN_IN) {
+            List<Path> merged = new ArrayList<>();
+            for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                List<Path> group = runs.subList(from, Math.min(runs.size(), from + MAX_FAN_IN));
+                merged.add(group.size() == 1 ? group.get(0) : mergeToRun(name, group));
+            }
+            runs = merged;
+        }
+        return new Cursor(runs);
+    }
+
+    private Path writeRun(String name, List<String> run) throws IOException {
+        String[] lines = run.toArray(new String[0]);
+        long[] keys = new long[lines.length];
+        Integer[] order = new Integer[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            keys[i] = key(lines[i]);
+            order[i] = i;
+        }
+        // Stable on equal keys, so rows of one food stay in file order
+        Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+        Path file = spillDir.resolve(name + "-" + runsWritten++ + ".run");
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Integer i : order) {
+                out.write(lines[i]);
+                out.newLine();
+            }
+        }
+        return file;
+    }
+
+    private Path mergeToRun(String name, List<Path> group) throws IOException {
+        Path file = spillDir.resolve(name + "-" + runsWritten++ + ".run");
+        try (Cursor cursor = new Cursor(new ArrayList<>(group));
+             BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            while (cursor.hasNext()) {
+                out.write(cursor.next());
+                out.newLine();
+            }
+        }
+        return file;
+    }
+
+    // Merged view over sorted run files, deleted on close
+    public static final class Cursor implements Iterator<String>, Closeable {
+        private final List<Path> runs;
+        private final List<BufferedReader> readers = new ArrayList<>();
+        private final PriorityQueue<Head> heads = new PriorityQueue<>(
+                Comparator.comparingLong((Head head) -> head.key).thenComparingInt(head -> head.run));
+
+        private static final class Head {
+            final int run;
+            final String line;
+            final long key;
+
+            Head(int run, String line) {
+                this.run = run;
+                this.line = line;
+                this.key = key(line);
+            }
+        }
+
+        Cursor(List<Path> runs) throws IOException {
+            this.runs = runs;
+            try {
+                for (int run = 0; run < runs.size(); run++) {
+                    readers.add(Files.newBufferedReader(runs.get(run), StandardCharsets.UTF_8));
+                    advance(run);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private void advance(int run) throws IOException {
+            String line = readers.get(run).readLine();
+            if (line != null) {
+                heads.add(new Head(run, line));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        // Key of the next line, without consuming it
+        public long peekKey() {
+            if (heads.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return heads.peek().key;
+        }
+
+        @Override
+        public String next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            try {
+                advance(head.run);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return head.line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+}
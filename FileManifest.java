@@ -0,0 +1,126 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Remembers which CSV files have been ingested, by size, modification time and checksum,
+// so an unchanged file is skipped without being read again. Size and mtime are checked
+// first; the checksum is only computed when they differ (e.g. a file that was touched
+// or copied without changing). Nothing here writes through the lookup connection: records
+// are made on the caller's connection, normally the ingestion writer's.
+public class FileManifest {
+    private final Connection conn;
+    private final String model;
+
+    public static final class FileState {
+        final String path;
+        final long size;
+        final long mtime;
+        String checksum;
+        // Unchanged, but recorded under an older mtime
+        boolean touched;
+
+        FileState(String path, long size, long mtime) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        // Whether an unchanged file should be recorded again so the next run takes the fast path
+        public boolean isTouched() {
+            return touched;
+        }
+    }
+
+    public FileManifest(Connection conn, String model) throws SQLException {
+        this.conn = conn;
+        this.model = model;
+        String sql = "CREATE TABLE IF NOT EXISTS ingested_files (path TEXT PRIMARY KEY, size INTEGER, mtime INTEGER, "
+                + "checksum TEXT, model TEXT, ingested_at INTEGER)";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    public FileState stat(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        return new FileState(absolute.toString(), Files.size(absolute), Files.getLastModifiedTime(absolute).toMillis());
+    }
+
+    public boolean isUnchanged(FileState state) throws SQLException, IOException {
+        String sql = "SELECT size, mtime, checksum FROM ingested_files WHERE path = ? AND model = ?";
+        long size;
+        long mtime;
+        String checksum;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, state.path);
+            stmt.setString(2, model);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                size = rs.getLong("size");
+                mtime = rs.getLong("mtime");
+                checksum = rs.getString("checksum");
+            }
+        }
+        if (size == state.size && mtime == state.mtime) {
+            return true;
+        }
+        if (size != state.size) {
+            return false;
+        }
+
+        state.checksum = checksum(Path.of(state.path));
+        if (state.checksum.equals(checksum)) {
+            // Same content under a new mtime; the caller records it again through its writer
+            state.touched = true;
+            return true;
+        }
+        return false;
+    }
+
+    // Computes the checksum a record stores, so the record itself does no file I/O
+    public void prepare(FileState state) throws IOException {
+        if (state.checksum == null) {
+            state.checksum = checksum(Path.of(state.path));
+        }
+    }
+
+    // Records a prepared state on the given connection, such as the ingestion writer's
+    public void record(Connection conn, FileState state) throws SQLException {
+        if (state.checksum == null) {
+            throw new IllegalStateException("Not prepared: " + state.path);
+        }
+        String sql = "INSERT OR REPLACE INTO ingested_files (path, size, mtime, checksum, model, ingested_at) VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, state.path);
+            stmt.setLong(2, state.size);
+            stmt.setLong(3, state.mtime);
+            stmt.setString(4, state.checksum);
+            stmt.setString(5, model);
+            stmt.setLong(6, System.currentTimeMillis());
+            stmt.executeUpdate();
+        }
+    }
+
+    private static String checksum(Path path) throws IOException {
+        MessageDigest digest = ContentHashes.sha256();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return ContentHashes.toHex(digest.digest());
+    }
+}
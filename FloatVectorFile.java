@@ -0,0 +1,86 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Append-only file of little-endian float32 vectors, row i at offset i * dimension * 4.
+// Keeps full-precision copies on disk so only the compact codes need to live on the heap.
+public class FloatVectorFile implements VectorSource, AutoCloseable {
+    private final FileChannel channel;
+    private final int dimension;
+    private final ByteBuffer writeBuffer;
+    private float[] norms = new float[1024];
+    private int size;
+
+    public FloatVectorFile(Path path, int dimension) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.dimension = dimension;
+        this.writeBuffer = ByteBuffer.allocate(dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public synchronized int append(float[] vector) {
+        writeBuffer.clear();
+        writeBuffer.asFloatBuffer().put(vector, 0, dimension);
+        try {
+            long position = (long) size * dimension * Float.BYTES;
+            while (writeBuffer.hasRemaining()) {
+                position += channel.write(writeBuffer, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (size == norms.length) {
+            norms = Arrays.copyOf(norms, size * 2);
+        }
+        norms[size] = VectorCodec.norm(vector);
+        return size++;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized float norm(int row) {
+        if (row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return norms[row];
+    }
+
+    @Override
+    public void read(int row, float[] dst) {
+        ByteBuffer buffer = ByteBuffer.allocate(dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = (long) row * dimension * Float.BYTES;
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new IOException("Unexpected end of vector file at row " + row);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        buffer.asFloatBuffer().get(dst, 0, dimension);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,340 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+// One compact text document per food from a FoodData Central CSV export, instead of one per
+// raw line. food.csv, food_nutrient.csv and branded_food.csv are projected to the columns the
+// document uses, sorted by fdc_id with an ExternalSorter and merge-joined on it, so memory is
+// bounded by the sort runs however many nutrient rows there are. nutrient.csv and
+// food_category.csv are small lookup tables and are held in memory. Each document carries
+// the description, category, brand, ingredients, serving and the leading nutrients per 100 g.
+public class FoodDocuments implements Iterator<String>, AutoCloseable {
+    public static final String FOOD = "food.csv";
+    public static final String FOOD_NUTRIENT = "food_nutrient.csv";
+    public static final String NUTRIENT = "nutrient.csv";
+    public static final String BRANDED_FOOD = "branded_food.csv";
+    public static final String FOOD_CATEGORY = "food_category.csv";
+    private static final int MAX_NUTRIENTS = 10;
+    private static final int MAX_INGREDIENT_CHARS = 300;
+    private static final CSVFormat FORMAT = CSVFormat.DEFAULT.builder()
+            .setHeader()
+            .setSkipHeaderRecord(true)
+            .setIgnoreSurroundingSpaces(true)
+            .setTrim(true)
+            .setIgnoreEmptyLines(true)
+            .build();
+
+    private static final class Nutrient {
+        final String name;
+        final String unit;
+        final double rank;
+
+        Nutrient(String name, String unit, double rank) {
+            this.name = name;
+            this.unit = unit;
+            this.rank = rank;
+        }
+    }
+
+    private final Path spillDir;
+    private final Map<String, Nutrient> nutrients;
+    private final ExternalSorter.Cursor foods;
+    private final ExternalSorter.Cursor foodNutrients;
+    private final ExternalSorter.Cursor brandedFoods;
+    private final int runsWritten;
+    private long documents;
+    private long nutrientRows;
+
+    private FoodDocuments(Path spillDir, Map<String, Nutrient> nutrients, ExternalSorter.Cursor foods,
+                          ExternalSorter.Cursor foodNutrients, ExternalSorter.Cursor brandedFoods, int runsWritten) {
+        this.spillDir = spillDir;
+        this.nutrients = nutrients;
+        this.foods = foods;
+        this.foodNutrients = foodNutrients;
+        this.brandedFoods = brandedFoods;
+        this.runsWritten = runsWritten;
+    }
+
+    // True when dir holds an export this can join; only food.csv is required
+    public static boolean isExport(Path dir) {
+        return Files.isRegularFile(dir.resolve(FOOD));
+    }
+
+    // The files that feed the documents, for change detection
+    public static List<Path> inputs(Path dir) {
+        List<Path> inputs = new ArrayList<>();
+        for (String name : List.of(FOOD, FOOD_NUTRIENT, NUTRIENT, BRANDED_FOOD, FOOD_CATEGORY)) {
+            if (Files.isRegularFile(dir.resolve(name))) {
+                inputs.add(dir.resolve(name));
+            }
+        }
+        return inputs;
+    }
+
+    // Journal version of the export: the documents change when any input file does
+    public static String version(Path dir) throws IOException {
+        StringBuilder version = new StringBuilder();
+        for (Path input : inputs(dir)) {
+            version.append(input.getFileName()).append(':').append(Files.size(input)).append(':')
+                    .append(Files.getLastModifiedTime(input).toMillis()).append(';');
+        }
+        return version.toString();
+    }
+
+    // Sorts the large tables into runs under a temporary directory; close() removes it
+    public static FoodDocuments open(Path dir, int runRows) throws IOException {
+        Map<String, String> categories = new HashMap<>();
+        readCsv(dir.resolve(FOOD_CATEGORY), record -> categories.put(get(record, "id"), get(record, "description")));
+        Map<String, Nutrient> nutrients = new HashMap<>();
+        readCsv(dir.resolve(NUTRIENT), record -> {
+            double rank;
+            try {
+                rank = Double.parseDouble(get(record, "rank"));
+            } catch (NumberFormatException e) {
+                rank = Double.MAX_VALUE;
+            }
+            nutrients.put(get(record, "id"), new Nutrient(get(record, "name"), get(record, "unit_name"), rank));
+        });
+
+        Path spillDir = Files.createTempDirectory("fdc-join");
+        ExternalSorter sorter = new ExternalSorter(spillDir, runRows);
+        List<ExternalSorter.Cursor> cursors = new ArrayList<>();
+        try {
+            // fdc_id, description, category
+            cursors.add(sorter.sort("food", project(dir.resolve(FOOD), record -> line(get(record, "fdc_id"),
+                    get(record, "description"), categories.getOrDefault(get(record, "food_category_id"), "")))));
+            // fdc_id, nutrient_id, amount
+            cursors.add(sorter.sort("food_nutrient", project(dir.resolve(FOOD_NUTRIENT), record -> line(get(record, "fdc_id"),
+                    get(record, "nutrient_id"), get(record, "amount")))));
+            // fdc_id, brand, category, ingredients, serving
+            cursors.add(sorter.sort("branded_food", project(dir.resolve(BRANDED_FOOD), record -> line(get(record, "fdc_id"),
+                    join(" ", get(record, "brand_owner"), get(record, "brand_name"), get(record, "subbrand_name")),
+                    get(record, "branded_food_category"), get(record, "ingredients"),
+                    join(" ", get(record, "serving_size"), get(record, "serving_size_unit"))))));
+        } catch (IOException | UncheckedIOException e) {
+            for (ExternalSorter.Cursor cursor : cursors) {
+                cursor.close();
+            }
+            deleteDir(spillDir);
+            throw e instanceof UncheckedIOException unchecked ? unchecked.getCause() : (IOException) e;
+        }
+        return new FoodDocuments(spillDir, nutrients, cursors.get(0), cursors.get(1), cursors.get(2), sorter.getRunsWritten());
+    }
+
+    @Override
+    public boolean hasNext() {
+        return foods.hasNext();
+    }
+
+    // The next food's document, in fdc_id order
+    @Override
+    public String next() {
+        if (!foods.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String[] food = foods.next().split("\t", -1);
+        long fdcId = ExternalSorter.key(food[0]);
+        List<String[]> foodNutrients = rowsFor(this.foodNutrients, fdcId);
+        List<String[]> branded = rowsFor(brandedFoods, fdcId);
+        nutrientRows += foodNutrients.size();
+        documents++;
+
+        StringBuilder document = new StringBuilder(field(food, 1));
+        String category = field(food, 2);
+        String[] brand = branded.isEmpty() ? new String[0] : branded.get(0);
+        if (category.isEmpty()) {
+            category = field(brand, 2);
+        }
+        if (!category.isEmpty()) {
+            document.append(" (").append(category).append(")");
+        }
+        appendPart(document, "Brand", field(brand, 1));
+        String ingredients = field(brand, 3);
+        if (ingredients.length() > MAX_INGREDIENT_CHARS) {
+            ingredients = ingredients.substring(0, MAX_INGREDIENT_CHARS) + "...";
+        }
+        appendPart(document, "Ingredients", ingredients);
+        appendPart(document, "Serving", field(brand, 4));
+        appendPart(document, "Per 100 g", nutrientSummary(foodNutrients));
+        document.append(". FDC ").append(fdcId);
+        return document.toString();
+    }
+
+    // The leading nutrients by FDC display rank, skipping zero amounts and the kJ energy duplicate
+    private String nutrientSummary(List<String[]> rows) {
+        List<String[]> ranked = new ArrayList<>();
+        for (String[] row : rows) {
+            Nutrient nutrient = nutrients.get(field(row, 1));
+            if (nutrient != null && !nutrient.unit.equalsIgnoreCase("kJ") && isNonZero(field(row, 2))) {
+                ranked.add(row);
+            }
+        }
+        ranked.sort(Comparator.comparingDouble(row -> nutrients.get(field(row, 1)).rank));
+        List<String> parts = new ArrayList<>();
+        for (String[] row : ranked.subList(0, Math.min(MAX_NUTRIENTS, ranked.size()))) {
+            Nutrient nutrient = nutrients.get(field(row, 1));
+            parts.add(nutrient.name + " " + field(row, 2) + " " + nutrient.unit.toLowerCase());
+        }
+        return String.join(", ", parts);
+    }
+
+    // Rows of a sorted cursor for fdcId, skipping any for lower ids that have no food
+    private static List<String[]> rowsFor(ExternalSorter.Cursor cursor, long fdcId) {
+        List<String[]> rows = new ArrayList<>();
+        while (cursor.hasNext() && cursor.peekKey() < fdcId) {
+            cursor.next();
+        }
+        while (cursor.hasNext() && cursor.peekKey() == fdcId) {
+            rows.add(cursor.next().split("\t", -1));
+        }
+        return rows;
+    }
+
+    public String report() {
+        return String.format("%d food documents from %d nutrient rows, %d sort runs spilled", documents, nutrientRows, runsWritten);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            foods.close();
+            foodNutrients.close();
+            brandedFoods.close();
+        } finally {
+            deleteDir(spillDir);
+        }
+    }
+
+    private interface RecordHandler {
+        void accept(CSVRecord record);
+    }
+
+    private static void readCsv(Path file, RecordHandler handler) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, FORMAT)) {
+            for (CSVRecord record : parser) {
+                if (record.isConsistent()) {
+                    handler.accept(record);
+                }
+            }
+        }
+    }
+
+    private interface Projection {
+        String apply(CSVRecord record);
+    }
+
+    // Streams a CSV file as projected tab-separated lines; a missing file yields nothing
+    private static Iterator<String> project(Path file, Projection projection) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return List.<String>of().iterator();
+        }
+        Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        CSVParser parser = new CSVParser(reader, FORMAT);
+        Iterator<CSVRecord> records = parser.iterator();
+        return new Iterator<>() {
+            private String next = advance();
+
+            private String advance() {
+                while (records.hasNext()) {
+                    CSVRecord record = records.next();
+                    if (record.isConsistent()) {
+                        return projection.apply(record);
+                    }
+                }
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    private static String line(String... fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            line.append(fields[i] == null ? "" : fields[i].replaceAll("[\\t\\r\\n]+", " "));
+        }
+        return line.toString();
+    }
+
+    private static String join(String separator, String... parts) {
+        List<String> present = new ArrayList<>();
+        for (String part : parts) {
+            if (part != null && !part.isBlank()) {
+                present.add(part.trim());
+            }
+        }
+        return String.join(separator, present);
+    }
+
+    // Columns vary between export releases; a missing one reads as empty
+    private static String get(CSVRecord record, String column) {
+        return record.isMapped(column) ? record.get(column) : "";
+    }
+
+    private static String field(String[] fields, int index) {
+        return index < fields.length ? fields[index] : "";
+    }
+
+    private static void appendPart(StringBuilder document, String label, String value) {
+        if (!value.isEmpty()) {
+            document.append(". ").append(label).append(": ").append(value);
+        }
+    }
+
+    private static boolean isNonZero(String amount) {
+        try {
+            return Double.parseDouble(amount) != 0.0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void deleteDir(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
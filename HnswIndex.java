@@ -0,0 +1,407 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+// In-memory HNSW (hierarchical navigable small world) graph for approximate cosine search.
+// Vectors are normalized on insert so similarity is a plain dot product.
+//   m              - links per node on the upper layers (2 * m on layer 0)
+//   efConstruction - candidate list size while inserting
+//   efSearch       - candidate list size while querying, the recall/latency knob
+public class HnswIndex {
+    private final int dimension;
+    private final int m;
+    private final int maxLinksLayer0;
+    private final int efConstruction;
+    private volatile int efSearch;
+    private final double levelMultiplier;
+    private final Random random;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<float[]> vectors = new ArrayList<>();
+    private final List<int[][]> links = new ArrayList<>();
+    private final List<int[]> linkCounts = new ArrayList<>();
+    private int[] ids = new int[1024];
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int dimension, int m, int efConstruction, int efSearch) {
+        this(dimension, m, efConstruction, efSearch, 42L);
+    }
+
+    public HnswIndex(int dimension, int m, int efConstruction, int efSearch, long seed) {
+        if (m < 2) {
+            throw new IllegalArgumentException("m must be at least 2");
+        }
+        this.dimension = dimension;
+        this.m = m;
+        this.maxLinksLayer0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new Random(seed);
+    }
+
+    public static final class Neighbor {
+        public final int id;
+        public final float similarity;
+
+        Neighbor(int id, float similarity) {
+            this.id = id;
+            this.similarity = similarity;
+        }
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return vectors.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    public void add(int id, float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + vector.length);
+        }
+        float[] normalized = normalize(vector);
+        if (normalized == null) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            int node = vectors.size();
+            int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+            int[][] nodeLinks = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                nodeLinks[l] = new int[(l == 0 ? maxLinksLayer0 : m) + 1];
+            }
+            vectors.add(normalized);
+            links.add(nodeLinks);
+            linkCounts.add(new int[level + 1]);
+            if (node == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            ids[node] = id;
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+
+            int current = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                current = greedyClosest(normalized, current, l);
+            }
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                TopK candidates = searchLayer(normalized, current, efConstruction, l, null);
+                int[] selected = selectNeighbors(normalized, candidates, m);
+                int maxLinks = l == 0 ? maxLinksLayer0 : m;
+                for (int neighbor : selected) {
+                    addLink(node, neighbor, l, maxLinks);
+                    addLink(neighbor, node, l, maxLinks);
+                }
+                current = candidates.bestId();
+            }
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Neighbor> search(float[] query, int k) {
+        return search(query, k, efSearch);
+    }
+
+    public List<Neighbor> search(float[] query, int k, int ef) {
+        return search(query, k, ef, null);
+    }
+
+    // Only ids that pass accept are returned. Rejected nodes are still walked through, so the
+    // graph stays connected, but the search runs until ef accepted nodes are found; with a very
+    // selective filter that approaches a full scan, and an exact scan of the candidates is cheaper.
+    public List<Neighbor> search(float[] query, int k, int ef, IntPredicate accept) {
+        float[] normalized = normalize(query);
+        List<Neighbor> results = new ArrayList<>();
+        if (normalized == null || normalized.length != dimension) {
+            return results;
+        }
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return results;
+            }
+            int current = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedyClosest(normalized, current, l);
+            }
+            TopK candidates = searchLayer(normalized, current, Math.max(ef, k), 0, accept);
+            int[] nodes = candidates.ids();
+            for (int i = 0; i < Math.min(k, nodes.length); i++) {
+                results.add(new Neighbor(ids[nodes[i]], dot(normalized, vectors.get(nodes[i]))));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Exact search over the same normalized vectors; the ground truth for recall measurements.
+    public List<Neighbor> searchExact(float[] query, int k) {
+        float[] normalized = normalize(query);
+        List<Neighbor> results = new ArrayList<>();
+        if (normalized == null || normalized.length != dimension) {
+            return results;
+        }
+
+        lock.readLock().lock();
+        try {
+            TopK best = new TopK(k);
+            for (int node = 0; node < vectors.size(); node++) {
+                best.offer(node, dot(normalized, vectors.get(node)));
+            }
+            for (int node : best.ids()) {
+                results.add(new Neighbor(ids[node], dot(normalized, vectors.get(node))));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Runs sampled stored vectors as queries at each efSearch value and compares the
+    // approximate top-k against exact search, so efSearch can be picked for production.
+    public String recallReport(int queryCount, int k, int[] efValues) {
+        List<float[]> queries = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Random sampler = new Random(7L);
+            for (int i = 0; i < Math.min(queryCount, vectors.size()); i++) {
+                queries.add(vectors.get(sampler.nextInt(vectors.size())));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("HNSW recall report (n=%d, m=%d, efConstruction=%d, queries=%d, k=%d)%n",
+                size(), m, efConstruction, queries.size(), k));
+        if (queries.isEmpty()) {
+            return report.append("Index is empty").toString();
+        }
+
+        List<int[]> truth = new ArrayList<>();
+        long exactNanos = 0;
+        for (float[] query : queries) {
+            long start = System.nanoTime();
+            truth.add(neighborIds(searchExact(query, k)));
+            exactNanos += System.nanoTime() - start;
+        }
+        report.append(String.format("  exact        recall=1.0000  avg=%.3f ms%n", exactNanos / 1e6 / queries.size()));
+
+        for (int ef : efValues) {
+            long nanos = 0;
+            double recallSum = 0.0;
+            for (int q = 0; q < queries.size(); q++) {
+                long start = System.nanoTime();
+                int[] found = neighborIds(search(queries.get(q), k, ef));
+                nanos += System.nanoTime() - start;
+                recallSum += overlap(truth.get(q), found) / (double) Math.max(1, truth.get(q).length);
+            }
+            report.append(String.format("  efSearch=%-4d recall=%.4f  avg=%.3f ms%n",
+                    ef, recallSum / queries.size(), nanos / 1e6 / queries.size()));
+        }
+        return report.toString();
+    }
+
+    private static int[] neighborIds(List<Neighbor> neighbors) {
+        int[] result = new int[neighbors.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = neighbors.get(i).id;
+        }
+        return result;
+    }
+
+    private static int overlap(int[] expected, int[] found) {
+        int[] sorted = expected.clone();
+        Arrays.sort(sorted);
+        int hits = 0;
+        for (int id : found) {
+            if (Arrays.binarySearch(sorted, id) >= 0) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float best = dot(query, vectors.get(current));
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] nodeLinks = links.get(current)[level];
+            int count = linkCounts.get(current)[level];
+            for (int i = 0; i < count; i++) {
+                int candidate = nodeLinks[i];
+                float similarity = dot(query, vectors.get(candidate));
+                if (similarity > best) {
+                    best = similarity;
+                    current = candidate;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // accept, when set, limits the results to the nodes whose ids pass it
+    private TopK searchLayer(float[] query, int start, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(vectors.size());
+        TopK results = new TopK(ef);
+        // Unbounded frontier with negated scores, so its root is the closest unexpanded node
+        TopK frontier = new TopK(Integer.MAX_VALUE);
+
+        float startSimilarity = dot(query, vectors.get(start));
+        visited.set(start);
+        if (accept == null || accept.test(ids[start])) {
+            results.offer(start, startSimilarity);
+        }
+        frontier.offer(start, -startSimilarity);
+
+        while (frontier.size() > 0) {
+            float similarity = -frontier.minScore();
+            int node = frontier.pollMin();
+            if (results.size() >= ef && similarity < results.minScore()) {
+                break;
+            }
+            if (level >= links.get(node).length) {
+                continue;
+            }
+            int[] nodeLinks = links.get(node)[level];
+            int count = linkCounts.get(node)[level];
+            for (int i = 0; i < count; i++) {
+                int neighbor = nodeLinks[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float neighborSimilarity = dot(query, vectors.get(neighbor));
+                if (results.size() < ef || neighborSimilarity > results.minScore()) {
+                    if (accept == null || accept.test(ids[neighbor])) {
+                        results.offer(neighbor, neighborSimilarity);
+                    }
+                    frontier.offer(neighbor, -neighborSimilarity);
+                }
+            }
+        }
+        return results;
+    }
+
+    // Neighbor selection heuristic from the HNSW paper: keep a candidate only if it is closer
+    // to the new node than to any neighbor already kept, which preserves long-range links.
+    private int[] selectNeighbors(float[] base, TopK candidates, int limit) {
+        int[] ordered = candidates.ids();
+        int[] selected = new int[Math.min(limit, ordered.length)];
+        int count = 0;
+        for (int candidate : ordered) {
+            if (count == selected.length) {
+                break;
+            }
+            float[] candidateVector = vectors.get(candidate);
+            float toBase = dot(base, candidateVector);
+            boolean keep = true;
+            for (int i = 0; i < count; i++) {
+                if (dot(candidateVector, vectors.get(selected[i])) > toBase) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate;
+            }
+        }
+        // Top up with the closest skipped candidates so sparse regions keep enough links
+        for (int candidate : ordered) {
+            if (count == selected.length) {
+                break;
+            }
+            boolean present = false;
+            for (int i = 0; i < count; i++) {
+                if (selected[i] == candidate) {
+                    present = true;
+                    break;
+                }
+            }
+            if (!present) {
+                selected[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void addLink(int from, int to, int level, int maxLinks) {
+        int[] nodeLinks = links.get(from)[level];
+        int[] counts = linkCounts.get(from);
+        for (int i = 0; i < counts[level]; i++) {
+            if (nodeLinks[i] == to) {
+                return;
+            }
+        }
+        nodeLinks[counts[level]++] = to;
+        if (counts[level] <= maxLinks) {
+            return;
+        }
+
+        // Over capacity: re-select the best maxLinks neighbors of "from"
+        float[] fromVector = vectors.get(from);
+        TopK candidates = new TopK(counts[level]);
+        for (int i = 0; i < counts[level]; i++) {
+            candidates.offer(nodeLinks[i], dot(fromVector, vectors.get(nodeLinks[i])));
+        }
+        int[] kept = selectNeighbors(fromVector, candidates, maxLinks);
+        System.arraycopy(kept, 0, nodeLinks, 0, kept.length);
+        counts[level] = kept.length;
+    }
+
+    private static float[] normalize(float[] vector) {
+        float norm = VectorCodec.norm(vector);
+        if (norm == 0f) {
+            return null;
+        }
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] / norm;
+        }
+        return normalized;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        return SimilarityKernels.dotNormalized(a, b);
+    }
+}
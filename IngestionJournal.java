@@ -0,0 +1,136 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Durable ingestion progress, so an interrupted run resumes instead of starting over. For each
+// source the journal holds a watermark: the number of leading lines whose rows are all either
+// stored or dead-lettered. The writer updates it in the same transaction as those rows, so it
+// never runs ahead of what is committed. It only applies while the source's version (size and
+// mtime for a file) matches. Rows whose embedding still fails after every retry go to
+// dead_letter with the last error, and later runs skip them until they are retried on request.
+public class IngestionJournal {
+    private final String model;
+
+    public static final class DeadLetter {
+        public final String contentHash;
+        public final String text;
+
+        DeadLetter(String contentHash, String text) {
+            this.contentHash = contentHash;
+            this.text = text;
+        }
+    }
+
+    public IngestionJournal(Connection conn, String model) throws SQLException {
+        this.model = model;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS ingest_journal (source TEXT, model TEXT, version TEXT, line INTEGER, "
+                    + "updated_at INTEGER, PRIMARY KEY (source, model))");
+            stmt.execute("CREATE TABLE IF NOT EXISTS dead_letter (content_hash TEXT PRIMARY KEY, model TEXT, source TEXT, "
+                    + "line INTEGER, text TEXT, error TEXT, attempts INTEGER, failed_at INTEGER)");
+        }
+    }
+
+    // Lines of the source already accounted for, or 0 if it is new or its version changed
+    public long resumeLine(Connection conn, String source, String version) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT version, line FROM ingest_journal WHERE source = ? AND model = ?")) {
+            stmt.setString(1, source);
+            stmt.setString(2, model);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && version.equals(rs.getString(1)) ? rs.getLong(2) : 0;
+            }
+        }
+    }
+
+    // Within the caller's transaction
+    public void advance(Connection conn, String source, String version, long line) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO ingest_journal (source, model, version, line, updated_at) VALUES (?, ?, ?, ?, ?)")) {
+            stmt.setString(1, source);
+            stmt.setString(2, model);
+            stmt.setString(3, version);
+            stmt.setLong(4, line);
+            stmt.setLong(5, System.currentTimeMillis());
+            stmt.executeUpdate();
+        }
+    }
+
+    // Within the caller's transaction
+    public void deadLetter(Connection conn, String contentHash, String source, long line, String text, String error,
+                           int attempts) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT OR REPLACE INTO dead_letter "
+                + "(content_hash, model, source, line, text, error, attempts, failed_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+            stmt.setString(1, contentHash);
+            stmt.setString(2, model);
+            stmt.setString(3, source);
+            stmt.setLong(4, line);
+            stmt.setString(5, text);
+            stmt.setString(6, error);
+            stmt.setInt(7, attempts);
+            stmt.setLong(8, System.currentTimeMillis());
+            stmt.executeUpdate();
+        }
+    }
+
+    // Which of the given hashes are dead-lettered, in one indexed lookup
+    public Set<String> deadLettered(Connection conn, List<String> hashes) throws SQLException {
+        Set<String> found = new HashSet<>();
+        if (hashes.isEmpty()) {
+            return found;
+        }
+        StringBuilder sql = new StringBuilder("SELECT content_hash FROM dead_letter WHERE content_hash IN (");
+        for (int i = 0; i < hashes.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < hashes.size(); i++) {
+                stmt.setString(i + 1, hashes.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    found.add(rs.getString(1));
+                }
+            }
+        }
+        return found;
+    }
+
+    public List<DeadLetter> deadLetters(Connection conn) throws SQLException {
+        List<DeadLetter> letters = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT content_hash, text FROM dead_letter WHERE model = ? ORDER BY failed_at")) {
+            stmt.setString(1, model);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    letters.add(new DeadLetter(rs.getString(1), rs.getString(2)));
+                }
+            }
+        }
+        return letters;
+    }
+
+    public int deadLetterCount(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM dead_letter WHERE model = ?")) {
+            stmt.setString(1, model);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // Removes dead letters whose rows have since been stored; returns how many
+    public int pruneDeadLetters(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            return stmt.executeUpdate("DELETE FROM dead_letter WHERE content_hash IN (SELECT content_hash FROM embeddings)");
+        }
+    }
+}
@@ -0,0 +1,672 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Staged CSV ingestion: a streaming reader feeds fixed-size chunks of lines through a bounded
+// queue to the embedding workers, whose results go through a second bounded queue to a single
+// writer thread. The queues block when full, so memory stays at roughly
+// (2 * queueCapacity + workers) chunks whatever the file size, and rows become durable as
+// soon as the writer commits their batch. Each row is keyed by its content hash, and rows
+// whose hash is already stored are dropped before they reach the embedding workers.
+// Workers retry failed embeddings with exponential backoff; rows that fail every attempt are
+// dead-lettered. With a lookup connection, each commit also advances the source's
+// IngestionJournal watermark, so an interrupted run resumes after the last committed chunk.
+// Several files can be ingested at once, each from its own thread calling ingest(): their
+// readers share the embedding workers through a fair queue, so a blocked reader gets the next
+// free slot and no file starves the others, and all of their rows go through the one writer.
+// Other writes that belong with an ingest go through write(), so SQLite sees a single writer.
+public final class IngestionPipeline implements AutoCloseable {
+    private static final long WRITER_IDLE_FLUSH_MS = 200;
+
+    public static final class Settings {
+        public int workers = 4;
+        public int chunkSize = 64;
+        public int queueCapacity = 16;
+        public int commitSize = 500;
+        public String bulkSynchronous = "NORMAL";
+        // Assigns written rows to IVF partitions in the same commit; null when not in ivf mode
+        public IvfIndex ivf;
+        // Embedding attempts per row before it is dead-lettered, backing off exponentially
+        public int maxAttempts = 4;
+        public long retryBaseMillis = 500;
+        public long retryMaxMillis = 30000;
+        // Dead-lettered rows are skipped unless this is set
+        public boolean retryDeadLetters;
+        // Prints the progress of the files being ingested this often; 0 or less disables it
+        public long progressSeconds;
+    }
+
+    public interface Embedder {
+        // Returns one vector per text, in order; an empty array marks a failed embedding
+        List<float[]> embed(List<String> texts) throws Exception;
+    }
+
+    public interface WriterTask {
+        void run(Connection conn) throws SQLException;
+    }
+
+    private static final class Chunk {
+        final FileTask file;
+        // Source lines [firstLine, endLine) this chunk accounts for, including skipped ones
+        final long firstLine;
+        final long endLine;
+        final List<String> lines;
+        final List<String> hashes;
+        final long[] lineNumbers;
+        List<float[]> vectors;
+        String[] errors;
+        int attempts;
+        int written;
+        int deadLettered;
+        // Set on the chunks that carry a write() task instead of rows
+        final WriterTask task;
+        final CompletableFuture<Void> taskDone;
+
+        Chunk(FileTask file, long firstLine, long endLine, List<String> lines, List<String> hashes, long[] lineNumbers) {
+            this.file = file;
+            this.firstLine = firstLine;
+            this.endLine = endLine;
+            this.lines = lines;
+            this.hashes = hashes;
+            this.lineNumbers = lineNumbers;
+            this.task = null;
+            this.taskDone = null;
+        }
+
+        Chunk(WriterTask task) {
+            this.file = null;
+            this.firstLine = 0;
+            this.endLine = 0;
+            this.lines = List.of();
+            this.hashes = List.of();
+            this.lineNumbers = new long[0];
+            this.task = task;
+            this.taskDone = new CompletableFuture<>();
+        }
+    }
+
+    private static final Chunk POISON = new Chunk(null, 0, 0, List.of(), List.of(), new long[0]);
+
+    private static final class FileTask {
+        final Path path;
+        // Journal version of the source; null when its progress is not journaled
+        final String version;
+        final long resumedAt;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final long startNanos = System.nanoTime();
+        // Committed line ranges beyond the watermark, waiting for the gap before them to commit
+        private final TreeMap<Long, Long> committedRanges = new TreeMap<>();
+        private long watermark;
+        long rowsRead;
+        long rowsWritten;
+        long rowsFailed;
+        long rowsSkipped;
+        long rowsDeadLettered;
+        int chunksSubmitted;
+        int chunksCompleted;
+        boolean readFinished;
+
+        FileTask(Path path, String version, long resumedAt) {
+            this.path = path;
+            this.version = version;
+            this.resumedAt = resumedAt;
+            this.watermark = resumedAt;
+        }
+
+        synchronized void chunkSubmitted(int rows, int skipped) {
+            chunksSubmitted++;
+            rowsRead += rows;
+            rowsSkipped += skipped;
+        }
+
+        // The watermark once these chunks commit as well
+        synchronized long watermarkWith(List<Chunk> chunks) {
+            TreeMap<Long, Long> ranges = new TreeMap<>(committedRanges);
+            for (Chunk chunk : chunks) {
+                ranges.put(chunk.firstLine, chunk.endLine);
+            }
+            long mark = watermark;
+            Long end;
+            while ((end = ranges.get(mark)) != null) {
+                mark = end;
+            }
+            return mark;
+        }
+
+        synchronized void chunkCompleted(Chunk chunk, boolean committed) {
+            chunksCompleted++;
+            if (committed) {
+                rowsWritten += chunk.written;
+                rowsDeadLettered += chunk.deadLettered;
+                rowsFailed += chunk.lines.size() - chunk.written - chunk.deadLettered;
+                committedRanges.put(chunk.firstLine, chunk.endLine);
+                Long end;
+                while ((end = committedRanges.remove(watermark)) != null) {
+                    watermark = end;
+                }
+            } else {
+                rowsFailed += chunk.lines.size();
+            }
+            completeIfDrained();
+        }
+
+        synchronized void readFinished() {
+            readFinished = true;
+            completeIfDrained();
+        }
+
+        private void completeIfDrained() {
+            if (readFinished && chunksCompleted == chunksSubmitted) {
+                done.complete(null);
+            }
+        }
+
+        synchronized String progress() {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            return String.format("%s: read %d, stored %d, dead-lettered %d, failed %d, %d chunks in flight (%.1f rows/sec)",
+                    path.getFileName(), rowsRead, rowsWritten, rowsDeadLettered, rowsFailed,
+                    chunksSubmitted - chunksCompleted, seconds > 0 ? rowsWritten / seconds : 0.0);
+        }
+
+        synchronized String report() {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            return String.format("%s: %sread %d, skipped %d already stored, stored %d, dead-lettered %d, failed %d rows in %.1f s (%.1f rows/sec)",
+                    path.getFileName(), resumedAt > 0 ? "resumed after line " + resumedAt + ", " : "", rowsRead,
+                    rowsSkipped, rowsWritten, rowsDeadLettered, rowsFailed, seconds, seconds > 0 ? rowsWritten / seconds : 0.0);
+        }
+    }
+
+    private final Connection conn;
+    private final Connection lookupConn;
+    private final String model;
+    private final Embedder embedder;
+    private final Settings settings;
+    private final IngestionJournal journal;
+    private final int chunkSize;
+    private final int workerCount;
+    private final BlockingQueue<Chunk> toEmbed;
+    private final BlockingQueue<Chunk> toWrite;
+    private final List<Thread> workers = new ArrayList<>();
+    private final Thread writerThread;
+    private final EmbeddingWriter writer;
+    // Files being ingested, in the order they started
+    private final List<FileTask> active = new ArrayList<>();
+    private final ScheduledExecutorService progressReporter;
+    private boolean batchFailed;
+
+    // conn is owned by the writer thread; lookupConn is a second connection used by readers to
+    // check content hashes while the writer holds its transaction open (WAL allows both)
+    public IngestionPipeline(Connection conn, Connection lookupConn, String model, Embedder embedder,
+                             Settings settings, EmbeddingWriter.CommitListener listener) throws SQLException {
+        this.conn = conn;
+        this.lookupConn = lookupConn;
+        this.model = model;
+        this.embedder = embedder;
+        this.settings = settings;
+        this.chunkSize = Math.max(1, settings.chunkSize);
+        this.workerCount = Math.max(1, settings.workers);
+        // Fair, so readers of concurrent files blocked on a full queue take turns
+        this.toEmbed = new ArrayBlockingQueue<>(Math.max(1, settings.queueCapacity), true);
+        this.toWrite = new ArrayBlockingQueue<>(Math.max(1, settings.queueCapacity));
+        // The journal's tables must exist before the writer opens its transaction
+        this.journal = lookupConn == null ? null : new IngestionJournal(lookupConn, model);
+        this.writer = new EmbeddingWriter(conn, settings.commitSize, settings.bulkSynchronous, listener, settings.ivf);
+
+        // Workers are virtual threads, so there can be as many as the embedder's concurrency cap;
+        // how many actually have a request in flight is left to the embedder
+        for (int i = 0; i < this.workerCount; i++) {
+            workers.add(Thread.ofVirtual().name("embed-worker-" + i).start(this::embedLoop));
+        }
+        writerThread = new Thread(this::writeLoop, "embedding-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        if (settings.progressSeconds > 0) {
+            progressReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ingest-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progressReporter.scheduleAtFixedRate(this::printProgress, settings.progressSeconds, settings.progressSeconds,
+                    TimeUnit.SECONDS);
+        } else {
+            progressReporter = null;
+        }
+    }
+
+    public static final class FileResult {
+        private final String report;
+        private final long rowsFailed;
+        private final long rowsDeadLettered;
+
+        FileResult(String report, long rowsFailed, long rowsDeadLettered) {
+            this.report = report;
+            this.rowsFailed = rowsFailed;
+            this.rowsDeadLettered = rowsDeadLettered;
+        }
+
+        // Rows that were neither stored nor dead-lettered, and are retried by the next run
+        public long getRowsFailed() {
+            return rowsFailed;
+        }
+
+        public long getRowsDeadLettered() {
+            return rowsDeadLettered;
+        }
+
+        @Override
+        public String toString() {
+            return report;
+        }
+    }
+
+    // Streams one file through the pipeline and returns once all of its rows are committed.
+    // The file's size and mtime version its journal entry, so an edited file starts over.
+    public FileResult ingest(Path path) throws IOException, InterruptedException {
+        String version = Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return ingest(path, version, reader.lines().iterator());
+        }
+    }
+
+    // Same for documents assembled elsewhere, such as FoodDocuments; source names them in
+    // reports and the journal. A null version leaves the run out of the journal.
+    // Safe to call from several threads at once, one source per thread.
+    public FileResult ingest(Path source, String version, Iterator<String> documents) throws IOException, InterruptedException {
+        long resumeAt = 0;
+        if (journal != null && version != null) {
+            try {
+                synchronized (lookupConn) {
+                    resumeAt = journal.resumeLine(lookupConn, source.toAbsolutePath().toString(), version);
+                }
+            } catch (SQLException e) {
+                System.err.println("Error reading the ingestion journal for " + source + ": " + e.getMessage());
+            }
+        }
+        FileTask file = new FileTask(source, journal == null ? null : version, resumeAt);
+        synchronized (active) {
+            active.add(file);
+        }
+        try {
+            return ingest(file, documents);
+        } finally {
+            synchronized (active) {
+                active.remove(file);
+            }
+        }
+    }
+
+    private FileResult ingest(FileTask file, Iterator<String> documents) throws IOException, InterruptedException {
+        long resumeAt = file.resumedAt;
+        try {
+            long lineNumber = 0;
+            // Lines up to the watermark are read past without hashing or lookups
+            while (lineNumber < resumeAt && documents.hasNext()) {
+                documents.next();
+                lineNumber++;
+            }
+            long chunkStart = lineNumber;
+            List<String> lines = new ArrayList<>(chunkSize);
+            List<Long> lineNumbers = new ArrayList<>(chunkSize);
+            // csv.read covers reading a chunk's lines, not the wait to hand it on
+            long readStart = System.nanoTime();
+            while (documents.hasNext()) {
+                String line = documents.next();
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                lines.add(line);
+                lineNumbers.add(lineNumber - 1);
+                if (lines.size() == chunkSize) {
+                    Metrics.record("csv.read", System.nanoTime() - readStart, lines.size());
+                    submit(file, chunkStart, lineNumber, lines, lineNumbers);
+                    chunkStart = lineNumber;
+                    lines = new ArrayList<>(chunkSize);
+                    lineNumbers = new ArrayList<>(chunkSize);
+                    readStart = System.nanoTime();
+                }
+            }
+            if (!lines.isEmpty() || lineNumber > chunkStart) {
+                Metrics.record("csv.read", System.nanoTime() - readStart, lines.size());
+                submit(file, chunkStart, lineNumber, lines, lineNumbers);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // Chunks already queued still drain even if reading failed part way
+            file.readFinished();
+        }
+
+        try {
+            file.done.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Ingestion failed for " + file.path, e.getCause());
+        }
+        synchronized (file) {
+            return new FileResult(file.report(), file.rowsFailed, file.rowsDeadLettered);
+        }
+    }
+
+    // Sends the dead-lettered rows through the pipeline again and drops the ones now stored
+    public FileResult retryDeadLetters() throws IOException, InterruptedException, SQLException {
+        if (journal == null) {
+            throw new IllegalStateException("Dead letters need a lookup connection");
+        }
+        List<String> texts = new ArrayList<>();
+        for (IngestionJournal.DeadLetter letter : journal.deadLetters(lookupConn)) {
+            texts.add(letter.text);
+        }
+        FileResult result = ingest(Path.of("dead_letter"), null, texts.iterator());
+        write(journal::pruneDeadLetters);
+        return result;
+    }
+
+    public int deadLetterCount() throws SQLException {
+        return journal == null ? 0 : journal.deadLetterCount(lookupConn);
+    }
+
+    // Runs task on the writer thread and commits it, along with any rows already written
+    // before it; returns once it is committed
+    public void write(WriterTask task) throws InterruptedException, SQLException {
+        Chunk chunk = new Chunk(task);
+        toWrite.put(chunk);
+        try {
+            chunk.taskDone.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof SQLException sql ? sql : new SQLException(e.getCause());
+        }
+    }
+
+    // One line per file being ingested
+    public String progress() {
+        StringBuilder progress = new StringBuilder();
+        synchronized (active) {
+            for (FileTask file : active) {
+                progress.append("  ").append(file.progress()).append(System.lineSeparator());
+            }
+        }
+        return progress.toString();
+    }
+
+    private void printProgress() {
+        String progress = progress();
+        if (!progress.isEmpty()) {
+            System.out.print("Ingesting" + System.lineSeparator() + progress);
+        }
+    }
+
+    private void submit(FileTask file, long firstLine, long endLine, List<String> lines, List<Long> lineNumbers)
+            throws InterruptedException {
+        Map<String, Integer> byHash = new LinkedHashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            byHash.putIfAbsent(ContentHashes.of(model, lines.get(i)), i);
+        }
+        if (lookupConn != null) {
+            // Readers of concurrent files share the lookup connection
+            try {
+                List<String> hashes = new ArrayList<>(byHash.keySet());
+                synchronized (lookupConn) {
+                    byHash.keySet().removeAll(ContentHashes.existing(lookupConn, hashes));
+                    if (!settings.retryDeadLetters) {
+                        byHash.keySet().removeAll(journal.deadLettered(lookupConn, hashes));
+                    }
+                }
+            } catch (SQLException e) {
+                // Not fatal: the writer's unique index still keeps duplicates out
+                System.err.println("Error checking content hashes for " + file.path + ": " + e.getMessage());
+            }
+        }
+
+        List<String> kept = new ArrayList<>(byHash.size());
+        long[] keptLines = new long[byHash.size()];
+        for (int index : byHash.values()) {
+            keptLines[kept.size()] = lineNumbers.get(index);
+            kept.add(lines.get(index));
+        }
+        file.chunkSubmitted(lines.size(), lines.size() - byHash.size());
+        Chunk chunk = new Chunk(file, firstLine, endLine, kept, new ArrayList<>(byHash.keySet()), keptLines);
+        // A chunk with nothing to embed still goes to the writer, which moves the watermark past it
+        if (kept.isEmpty()) {
+            toWrite.put(chunk);
+        } else {
+            toEmbed.put(chunk);
+        }
+    }
+
+    private void embedLoop() {
+        try {
+            while (true) {
+                Chunk chunk = toEmbed.take();
+                if (chunk == POISON) {
+                    return;
+                }
+                embedWithRetry(chunk);
+                toWrite.put(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Re-sends only the rows that are still missing a vector, sleeping between attempts with
+    // exponential backoff and jitter; rows left over carry their last error to the writer
+    private void embedWithRetry(Chunk chunk) throws InterruptedException {
+        int rows = chunk.lines.size();
+        List<float[]> vectors = new ArrayList<>(rows);
+        String[] errors = new String[rows];
+        List<Integer> pending = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            vectors.add(new float[0]);
+            pending.add(i);
+        }
+        int maxAttempts = Math.max(1, settings.maxAttempts);
+        for (int attempt = 1; ; attempt++) {
+            List<String> texts = new ArrayList<>(pending.size());
+            for (int i : pending) {
+                texts.add(chunk.lines.get(i));
+            }
+            List<Integer> failed = new ArrayList<>();
+            try {
+                List<float[]> embedded = embedder.embed(texts);
+                for (int p = 0; p < pending.size(); p++) {
+                    float[] vector = p < embedded.size() ? embedded.get(p) : null;
+                    if (vector == null || vector.length == 0) {
+                        errors[pending.get(p)] = "empty embedding";
+                        failed.add(pending.get(p));
+                    } else {
+                        vectors.set(pending.get(p), vector);
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                for (int i : pending) {
+                    errors[i] = e.getClass().getSimpleName() + ": " + e.getMessage();
+                }
+                failed = pending;
+            }
+            chunk.attempts = attempt;
+            if (failed.isEmpty() || attempt >= maxAttempts) {
+                if (!failed.isEmpty()) {
+                    System.err.println("Giving up on " + failed.size() + " rows from " + chunk.file.path + " after "
+                            + attempt + " attempts: " + errors[failed.get(0)]);
+                }
+                break;
+            }
+            Metrics.count("embed.retry", failed.size());
+            long delay = Math.min(settings.retryMaxMillis, settings.retryBaseMillis << Math.min(20, attempt - 1));
+            Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            pending = failed;
+        }
+        chunk.vectors = vectors;
+        chunk.errors = errors;
+    }
+
+    private void writeLoop() {
+        List<Chunk> uncommitted = new ArrayList<>();
+        try {
+            while (true) {
+                Chunk chunk = toWrite.poll(WRITER_IDLE_FLUSH_MS, TimeUnit.MILLISECONDS);
+                if (chunk == null || chunk == POISON) {
+                    // Idle (or shutting down): commit what we have so files can complete
+                    commit(uncommitted);
+                    if (chunk == POISON) {
+                        return;
+                    }
+                    continue;
+                }
+                if (chunk.task != null) {
+                    runTask(chunk, uncommitted);
+                    continue;
+                }
+                writeChunk(chunk);
+                uncommitted.add(chunk);
+                // Commits only fall between chunks, so each one is counted and journaled whole
+                if (toWrite.isEmpty() || writer.isBatchFull()) {
+                    commit(uncommitted);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Nothing may escape the writer thread, or ingest() would wait forever on chunks that never
+    // complete: a row that fails to write fails the whole open batch when it commits
+    private void writeChunk(Chunk chunk) {
+        for (int i = 0; i < chunk.lines.size(); i++) {
+            float[] vector = chunk.vectors != null && i < chunk.vectors.size() ? chunk.vectors.get(i) : null;
+            try {
+                // Failed embeddings are not stored; an empty vector would never be searchable
+                if (vector == null || vector.length == 0) {
+                    Metrics.count("embed.failed", 1);
+                    if (journal != null) {
+                        journal.deadLetter(conn, chunk.hashes.get(i), chunk.file.path.toString(), chunk.lineNumbers[i],
+                                chunk.lines.get(i), chunk.errors == null ? "not embedded" : chunk.errors[i], chunk.attempts);
+                        chunk.deadLettered++;
+                    }
+                    continue;
+                }
+                writer.write(chunk.lines.get(i), chunk.hashes.get(i), vector);
+                chunk.written++;
+            } catch (SQLException | RuntimeException e) {
+                // The open batch, which may include earlier chunks, is rolled back at the next commit
+                batchFailed = true;
+                System.err.println("Error writing batch for " + chunk.file.path + ": " + e.getMessage());
+            }
+        }
+        chunk.vectors = null;
+    }
+
+    // Rows written before the task commit first, so a failing task cannot take them down with it
+    private void runTask(Chunk chunk, List<Chunk> uncommitted) {
+        commit(uncommitted);
+        try {
+            chunk.task.run(conn);
+            writer.flush();
+            chunk.taskDone.complete(null);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollback) {
+                e.addSuppressed(rollback);
+            }
+            chunk.taskDone.completeExceptionally(e);
+        }
+    }
+
+    // A batch with a failed row is rolled back whole, so the counts and the journal's watermark
+    // never claim rows the database does not have
+    private void commit(List<Chunk> uncommitted) {
+        if (uncommitted.isEmpty()) {
+            return;
+        }
+        boolean committed = !batchFailed;
+        try {
+            if (committed) {
+                if (journal != null) {
+                    try {
+                        advanceJournal(uncommitted);
+                    } catch (SQLException | RuntimeException e) {
+                        // The watermark only lags; the rows themselves still commit
+                        System.err.println("Error updating the ingestion journal: " + e.getMessage());
+                    }
+                }
+                writer.flush();
+            } else {
+                writer.rollback();
+            }
+        } catch (SQLException | RuntimeException e) {
+            committed = false;
+            System.err.println("Error committing batch: " + e.getMessage());
+        } finally {
+            for (Chunk chunk : uncommitted) {
+                chunk.file.chunkCompleted(chunk, committed);
+            }
+            uncommitted.clear();
+            batchFailed = false;
+        }
+    }
+
+    // Written in the transaction the chunks commit in
+    private void advanceJournal(List<Chunk> uncommitted) throws SQLException {
+        Map<FileTask, List<Chunk>> byFile = new LinkedHashMap<>();
+        for (Chunk chunk : uncommitted) {
+            if (chunk.file.version != null) {
+                byFile.computeIfAbsent(chunk.file, f -> new ArrayList<>()).add(chunk);
+            }
+        }
+        for (Map.Entry<FileTask, List<Chunk>> entry : byFile.entrySet()) {
+            FileTask file = entry.getKey();
+            journal.advance(conn, file.path.toAbsolutePath().toString(), file.version, file.watermarkWith(entry.getValue()));
+        }
+    }
+
+    public String report() {
+        return writer.report();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (progressReporter != null) {
+            progressReporter.shutdownNow();
+        }
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                toEmbed.put(POISON);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            toWrite.put(POISON);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.forEach(Thread::interrupt);
+            writerThread.interrupt();
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,608 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+// Disk-resident IVF (inverted file) index in the same SQLite database as the embeddings. The
+// vectors are clustered around k-means centroids, which are the only part held in memory, and
+// each partition's vectors are stored together in BLOB pages of up to PAGE_VECTORS vectors
+// (ids, packed float32 vectors and norms). A query scores only the pages of the nprobe
+// partitions whose centroids are closest, so memory and I/O per query do not grow with the
+// whole table.
+//
+// train() is the offline re-clustering job: it samples the stored vectors, runs k-means, writes
+// the new pages into a side table and swaps it in with the new centroids in one transaction,
+// so readers see either the old layout or the new one. Rows added later are assigned to the
+// nearest existing centroid by append(), inside the writer's transaction; those pages are
+// small, and re-clustering packs them again. ivf_state.generation changes with every
+// re-clustering, and refresh() reloads the centroids when another process has retrained.
+public class IvfIndex {
+    private static final int PAGE_VECTORS = 128;
+    private static final int SCAN_PAGE_ROWS = 1000;
+    // Vectors buffered across all partitions while pages are assembled, before everything is written
+    private static final long MAX_BUFFERED_BYTES = 32L << 20;
+
+    private static final class State {
+        final float[][] centroids;
+        final int dimension;
+        final long generation;
+        // Vectors indexed when the state was loaded; an estimate once rows are appended
+        final int size;
+
+        State(float[][] centroids, int dimension, long generation, int size) {
+            this.centroids = centroids;
+            this.dimension = dimension;
+            this.generation = generation;
+            this.size = size;
+        }
+    }
+
+    private volatile State state;
+
+    private IvfIndex(State state) {
+        this.state = state;
+    }
+
+    public static void createTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS ivf_state (generation INTEGER, dim INTEGER, last_id INTEGER, size INTEGER)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS ivf_centroids (partition INTEGER PRIMARY KEY, vector BLOB)");
+            stmt.execute(createPagesSql("ivf_pages"));
+            stmt.execute("CREATE INDEX IF NOT EXISTS ivf_pages_partition ON ivf_pages (partition)");
+        }
+    }
+
+    private static String createPagesSql(String table) {
+        return "CREATE TABLE IF NOT EXISTS " + table + " (page INTEGER PRIMARY KEY, partition INTEGER NOT NULL, "
+                + "count INTEGER, ids BLOB, vectors BLOB, norms BLOB)";
+    }
+
+    // The trained index, or null if train() has not run on this database
+    public static IvfIndex load(Connection conn) throws SQLException {
+        State loaded = loadState(conn);
+        return loaded == null ? null : new IvfIndex(loaded);
+    }
+
+    private static State loadState(Connection conn) throws SQLException {
+        long generation;
+        int dimension;
+        int size;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT generation, dim, size FROM ivf_state")) {
+            if (!rs.next()) {
+                return null;
+            }
+            generation = rs.getLong(1);
+            dimension = rs.getInt(2);
+            size = rs.getInt(3);
+        }
+        List<float[]> centroids = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT vector FROM ivf_centroids ORDER BY partition")) {
+            while (rs.next()) {
+                centroids.add(VectorCodec.decode(rs.getBytes(1)));
+            }
+        }
+        return centroids.isEmpty() ? null : new State(centroids.toArray(new float[0][]), dimension, generation, size);
+    }
+
+    public int dimension() {
+        return state.dimension;
+    }
+
+    public int partitions() {
+        return state.centroids.length;
+    }
+
+    public long generation() {
+        return state.generation;
+    }
+
+    public int size() {
+        return state.size;
+    }
+
+    // Picks up centroids written by a re-clustering in another process or connection
+    public void refresh(Connection conn) throws SQLException {
+        long generation;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT generation FROM ivf_state")) {
+            if (!rs.next()) {
+                return;
+            }
+            generation = rs.getLong(1);
+        }
+        if (generation != state.generation) {
+            State reloaded = loadState(conn);
+            if (reloaded != null) {
+                state = reloaded;
+            }
+        }
+    }
+
+    public int assign(float[] vector) {
+        return nearest(state.centroids, normalize(vector));
+    }
+
+    // The nprobe partitions whose centroids are most similar to the query, best first
+    public int[] probe(float[] query, int nprobe) {
+        float[][] centroids = state.centroids;
+        float[] normalized = normalize(query);
+        TopK best = new TopK(Math.max(1, Math.min(nprobe, centroids.length)));
+        for (int p = 0; p < centroids.length; p++) {
+            best.offer(p, SimilarityKernels.dot(normalized, centroids[p]));
+        }
+        return best.ids();
+    }
+
+    // Exact cosine over the vectors in the probed partitions; accept, when set, limits the ids
+    public TopK search(Connection conn, float[] query, int k, int nprobe, ParallelExactSearch search,
+                       IntPredicate accept) throws SQLException {
+        if (query.length != dimension()) {
+            return new TopK(Math.max(1, k));
+        }
+        int[] partitions = probe(query, nprobe);
+        StringBuilder sql = new StringBuilder("SELECT count, ids, vectors, norms FROM ivf_pages WHERE partition IN (");
+        for (int i = 0; i < partitions.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        ParallelExactSearch.PagedSearch closest = search.pagedSearch(query, k, accept);
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < partitions.length; i++) {
+                stmt.setInt(i + 1, partitions[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int count = rs.getInt(1);
+                    closest.addPacked(decodeIds(rs.getBytes(2), count), rs.getBytes(3),
+                            VectorCodec.decode(rs.getBytes(4)), count);
+                }
+            }
+        }
+        return closest.finish();
+    }
+
+    // Assigns newly written rows and stores them as pages, in the caller's transaction. Rows of
+    // another dimension are left out; they are still found by the exact scan.
+    public void append(Connection conn, int[] ids, List<float[]> vectors) throws SQLException {
+        State current = state;
+        PageWriter writer = new PageWriter(conn, "ivf_pages", current);
+        int lastId = 0;
+        int appended = 0;
+        for (int i = 0; i < ids.length; i++) {
+            float[] vector = vectors.get(i);
+            if (vector.length == current.dimension && VectorCodec.norm(vector) > 0f) {
+                writer.add(ids[i], vector);
+                lastId = Math.max(lastId, ids[i]);
+                appended++;
+            }
+        }
+        writer.flushAll();
+        if (appended > 0) {
+            recordAppended(conn, lastId, appended);
+        }
+    }
+
+    private static void recordAppended(Connection conn, int lastId, int appended) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("UPDATE ivf_state SET last_id = MAX(last_id, ?), size = size + ?")) {
+            stmt.setInt(1, lastId);
+            stmt.setInt(2, appended);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Assigns rows written since the index last saw one, such as rows stored while another
+    // search mode was in use. One transaction, so last_id never runs ahead of the pages.
+    public int assignNew(Connection conn) throws SQLException {
+        int lastId;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT last_id FROM ivf_state")) {
+            lastId = rs.next() ? rs.getInt(1) : 0;
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        try {
+            conn.setAutoCommit(false);
+            int[] assigned = new int[1];
+            int newLastId = writeAssignments(conn, state, "ivf_pages", lastId, false, assigned);
+            recordAppended(conn, newLastId, assigned[0]);
+            conn.commit();
+            return assigned[0];
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Offline re-clustering: k-means over a sample of up to sampleSize stored vectors, then every
+    // row is assigned to its nearest centroid. Only the sample and the page buffers are in memory.
+    public static IvfIndex train(Connection conn, int partitions, int sampleSize, int iterations, long seed) throws SQLException {
+        createTables(conn);
+        int dimension = queryInt(conn, "SELECT dim FROM embeddings WHERE norm > 0 GROUP BY dim ORDER BY COUNT(*) DESC LIMIT 1");
+        if (dimension == 0) {
+            throw new IllegalStateException("No stored embeddings to cluster");
+        }
+        Random random = new Random(seed);
+        float[][] sample = sample(conn, dimension, Math.max(partitions, sampleSize), random);
+        float[][] centroids = kMeans(sample, Math.min(partitions, sample.length), iterations, random);
+        long generation = queryInt(conn, "SELECT COALESCE(MAX(generation), 0) FROM ivf_state") + 1L;
+        State next = new State(centroids, dimension, generation, 0);
+
+        int[] assigned = new int[1];
+        boolean autoCommit = conn.getAutoCommit();
+        try {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TABLE IF EXISTS ivf_pages_next");
+                stmt.execute(createPagesSql("ivf_pages_next"));
+            }
+            conn.commit();
+            int lastId = writeAssignments(conn, next, "ivf_pages_next", 0, true, assigned);
+
+            // The swap starts with a write, so the transaction holds the write lock before it
+            // reads; rows committed during the bulk pass are assigned here, then the tables switch
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM ivf_centroids");
+            }
+            lastId = writeAssignments(conn, next, "ivf_pages_next", lastId, false, assigned);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TABLE ivf_pages");
+                stmt.execute("ALTER TABLE ivf_pages_next RENAME TO ivf_pages");
+                stmt.execute("CREATE INDEX ivf_pages_partition ON ivf_pages (partition)");
+                stmt.executeUpdate("DELETE FROM ivf_state");
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO ivf_centroids (partition, vector) VALUES (?, ?)")) {
+                for (int p = 0; p < centroids.length; p++) {
+                    stmt.setInt(1, p);
+                    stmt.setBytes(2, VectorCodec.encode(centroids[p]));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO ivf_state (generation, dim, last_id, size) VALUES (?, ?, ?, ?)")) {
+                stmt.setLong(1, generation);
+                stmt.setInt(2, dimension);
+                stmt.setInt(3, lastId);
+                stmt.setInt(4, assigned[0]);
+                stmt.executeUpdate();
+            }
+            conn.commit();
+            System.out.println("Clustered " + assigned[0] + " vectors into " + centroids.length + " partitions (sample "
+                    + sample.length + ", generation " + generation + ")");
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return new IvfIndex(new State(centroids, dimension, generation, assigned[0]));
+    }
+
+    // Pages through the embeddings after afterId, assigning each row to a partition and writing
+    // the pages to table. Returns the last id seen; assigned[0] accumulates the rows written.
+    private static int writeAssignments(Connection conn, State state, String table, int afterId,
+                                        boolean commitEachPage, int[] assigned) throws SQLException {
+        String sql = "SELECT id, vector FROM embeddings WHERE dim = ? AND norm > 0 AND id > ? ORDER BY id LIMIT " + SCAN_PAGE_ROWS;
+        PageWriter writer = new PageWriter(conn, table, state);
+        int lastId = afterId;
+        try (PreparedStatement select = conn.prepareStatement(sql)) {
+            select.setInt(1, state.dimension);
+            while (true) {
+                int rows = 0;
+                select.setInt(2, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        lastId = rs.getInt(1);
+                        writer.add(lastId, VectorCodec.decode(rs.getBytes(2)));
+                        rows++;
+                    }
+                }
+                if (rows == 0) {
+                    break;
+                }
+                assigned[0] += rows;
+                if (commitEachPage) {
+                    conn.commit();
+                }
+            }
+        }
+        writer.flushAll();
+        return lastId;
+    }
+
+    // Partition sizes and page counts, to judge when re-clustering is due
+    public static String report(Connection conn) throws SQLException {
+        int partitions = queryInt(conn, "SELECT COUNT(*) FROM ivf_centroids");
+        if (partitions == 0) {
+            return "IVF index not trained";
+        }
+        int vectors = 0;
+        int pages = 0;
+        int largest = 0;
+        int smallest = Integer.MAX_VALUE;
+        int used = 0;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT SUM(count), COUNT(*) FROM ivf_pages GROUP BY partition")) {
+            while (rs.next()) {
+                int size = rs.getInt(1);
+                vectors += size;
+                pages += rs.getInt(2);
+                largest = Math.max(largest, size);
+                smallest = Math.min(smallest, size);
+                used++;
+            }
+        }
+        return String.format("IVF index: %d vectors in %d partitions (%d non-empty, sizes %d..%d, mean %.1f), %d pages",
+                vectors, partitions, used, used == 0 ? 0 : smallest, largest, vectors / (double) partitions, pages);
+    }
+
+    // Recall@k of each nprobe against probing every partition, using sampled stored vectors as queries
+    public String recallReport(Connection conn, ParallelExactSearch search, int queryCount, int k, int[] nprobes) throws SQLException {
+        List<float[]> queries = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT vector FROM embeddings WHERE dim = ? AND norm > 0 ORDER BY RANDOM() LIMIT ?")) {
+            stmt.setInt(1, dimension());
+            stmt.setInt(2, queryCount);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    queries.add(VectorCodec.decode(rs.getBytes(1)));
+                }
+            }
+        }
+        StringBuilder report = new StringBuilder(report(conn)).append(System.lineSeparator());
+        if (queries.isEmpty()) {
+            return report.toString();
+        }
+        int[][] truth = new int[queries.size()][];
+        long exactNanos = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            long start = System.nanoTime();
+            truth[q] = search(conn, queries.get(q), k, partitions(), search, null).ids();
+            exactNanos += System.nanoTime() - start;
+            Arrays.sort(truth[q]);
+        }
+        report.append(String.format("  all partitions recall=1.0000  avg=%.3f ms%n", exactNanos / 1e6 / queries.size()));
+        for (int nprobe : nprobes) {
+            double recall = 0.0;
+            long nanos = 0;
+            for (int q = 0; q < queries.size(); q++) {
+                long start = System.nanoTime();
+                int[] found = search(conn, queries.get(q), k, nprobe, search, null).ids();
+                nanos += System.nanoTime() - start;
+                int hits = 0;
+                for (int id : found) {
+                    if (Arrays.binarySearch(truth[q], id) >= 0) {
+                        hits++;
+                    }
+                }
+                recall += hits / (double) Math.max(1, truth[q].length);
+            }
+            report.append(String.format("  nprobe=%-4d    recall=%.4f  avg=%.3f ms%n", nprobe, recall / queries.size(),
+                    nanos / 1e6 / queries.size()));
+        }
+        return report.toString();
+    }
+
+    // Reservoir sample of the stored vectors, normalized
+    private static float[][] sample(Connection conn, int dimension, int sampleSize, Random random) throws SQLException {
+        List<float[]> reservoir = new ArrayList<>(sampleSize);
+        String sql = "SELECT id, vector FROM embeddings WHERE dim = ? AND norm > 0 AND id > ? ORDER BY id LIMIT " + SCAN_PAGE_ROWS;
+        long seen = 0;
+        int lastId = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, dimension);
+            while (true) {
+                int rows = 0;
+                stmt.setInt(2, lastId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        lastId = rs.getInt(1);
+                        rows++;
+                        seen++;
+                        if (reservoir.size() < sampleSize) {
+                            reservoir.add(normalize(VectorCodec.decode(rs.getBytes(2))));
+                        } else {
+                            long slot = (long) (random.nextDouble() * seen);
+                            if (slot < sampleSize) {
+                                reservoir.set((int) slot, normalize(VectorCodec.decode(rs.getBytes(2))));
+                            }
+                        }
+                    }
+                }
+                if (rows == 0) {
+                    break;
+                }
+            }
+        }
+        return reservoir.toArray(new float[0][]);
+    }
+
+    // Spherical k-means (cosine) with k-means++ seeding; an emptied cluster is re-seeded with
+    // the sample point that fits its centroid worst
+    private static float[][] kMeans(float[][] points, int k, int iterations, Random random) {
+        int dimension = points[0].length;
+        float[][] centroids = new float[k][];
+        float[] distance = new float[points.length];
+        Arrays.fill(distance, Float.MAX_VALUE);
+        centroids[0] = points[random.nextInt(points.length)].clone();
+        for (int c = 1; c < k; c++) {
+            double total = 0.0;
+            for (int i = 0; i < points.length; i++) {
+                float d = 1f - SimilarityKernels.dot(points[i], centroids[c - 1]);
+                distance[i] = Math.min(distance[i], d * d);
+                total += distance[i];
+            }
+            double target = random.nextDouble() * total;
+            int chosen = points.length - 1;
+            for (int i = 0; i < points.length; i++) {
+                target -= distance[i];
+                if (target <= 0) {
+                    chosen = i;
+                    break;
+                }
+            }
+            centroids[c] = points[chosen].clone();
+        }
+
+        int[] assignment = new int[points.length];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            float[][] current = centroids;
+            IntStream.range(0, points.length).parallel().forEach(i -> assignment[i] = nearest(current, points[i]));
+
+            float[][] sums = new float[k][dimension];
+            int[] counts = new int[k];
+            for (int i = 0; i < points.length; i++) {
+                float[] sum = sums[assignment[i]];
+                for (int d = 0; d < dimension; d++) {
+                    sum[d] += points[i][d];
+                }
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    int worst = 0;
+                    float worstSimilarity = Float.MAX_VALUE;
+                    for (int i = 0; i < points.length; i++) {
+                        float similarity = SimilarityKernels.dot(points[i], centroids[assignment[i]]);
+                        if (similarity < worstSimilarity) {
+                            worstSimilarity = similarity;
+                            worst = i;
+                        }
+                    }
+                    sums[c] = points[worst].clone();
+                    assignment[worst] = c;
+                }
+                float[] normalized = normalize(sums[c]);
+                centroids[c] = normalized.length == 0 ? centroids[c] : normalized;
+            }
+        }
+        return centroids;
+    }
+
+    private static int nearest(float[][] centroids, float[] normalized) {
+        int best = 0;
+        float bestSimilarity = -Float.MAX_VALUE;
+        for (int c = 0; c < centroids.length; c++) {
+            float similarity = SimilarityKernels.dot(normalized, centroids[c]);
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static float[] normalize(float[] vector) {
+        float norm = VectorCodec.norm(vector);
+        if (norm == 0f) {
+            return new float[0];
+        }
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] / norm;
+        }
+        return normalized;
+    }
+
+    private static int[] decodeIds(byte[] packed, int count) {
+        int[] ids = new int[count];
+        ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(ids);
+        return ids;
+    }
+
+    private static byte[] encodeIds(int[] ids, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(ids, 0, count);
+        return buffer.array();
+    }
+
+    private static int queryInt(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Collects vectors per partition and writes a page whenever one fills up, or all of them
+    // once MAX_BUFFERED_BYTES is buffered
+    private static final class PageWriter {
+        private final Connection conn;
+        private final String table;
+        private final State state;
+        private final Map<Integer, List<float[]>> vectors = new HashMap<>();
+        private final Map<Integer, List<Integer>> ids = new HashMap<>();
+        private long buffered;
+
+        PageWriter(Connection conn, String table, State state) {
+            this.conn = conn;
+            this.table = table;
+            this.state = state;
+        }
+
+        void add(int id, float[] vector) throws SQLException {
+            float[] normalized = normalize(vector);
+            if (normalized.length == 0) {
+                return;
+            }
+            int partition = nearest(state.centroids, normalized);
+            List<float[]> partitionVectors = vectors.computeIfAbsent(partition, p -> new ArrayList<>());
+            partitionVectors.add(vector);
+            ids.computeIfAbsent(partition, p -> new ArrayList<>()).add(id);
+            buffered += (long) vector.length * Float.BYTES;
+            if (partitionVectors.size() >= PAGE_VECTORS) {
+                flush(partition);
+            } else if (buffered >= MAX_BUFFERED_BYTES) {
+                flushAll();
+            }
+        }
+
+        void flushAll() throws SQLException {
+            for (Integer partition : new ArrayList<>(vectors.keySet())) {
+                flush(partition);
+            }
+        }
+
+        private void flush(int partition) throws SQLException {
+            List<float[]> pageVectors = vectors.remove(partition);
+            List<Integer> pageIds = ids.remove(partition);
+            if (pageVectors == null || pageVectors.isEmpty()) {
+                return;
+            }
+            int count = pageVectors.size();
+            int[] idArray = new int[count];
+            float[] packed = new float[count * state.dimension];
+            float[] norms = new float[count];
+            for (int i = 0; i < count; i++) {
+                idArray[i] = pageIds.get(i);
+                System.arraycopy(pageVectors.get(i), 0, packed, i * state.dimension, state.dimension);
+                norms[i] = VectorCodec.norm(pageVectors.get(i));
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO " + table + " (partition, count, ids, vectors, norms) VALUES (?, ?, ?, ?, ?)")) {
+                stmt.setInt(1, partition);
+                stmt.setInt(2, count);
+                stmt.setBytes(3, encodeIds(idArray, count));
+                stmt.setBytes(4, VectorCodec.encode(packed));
+                stmt.setBytes(5, VectorCodec.encode(norms));
+                stmt.executeUpdate();
+            }
+            buffered -= (long) count * state.dimension * Float.BYTES;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free latency histogram over nanoseconds. Buckets split each power of two into four,
+// so any percentile is within about 19% of the true value over the whole range from 1 ns to
+// hours, in a fixed 2 KB of counters.
+public final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(1, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        totalNanos.addAndGet(value);
+        maxNanos.accumulateAndGet(value, Math::max);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public double meanMillis() {
+        long n = count.get();
+        return n == 0 ? 0.0 : totalNanos.get() / 1e6 / n;
+    }
+
+    public double maxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    // Upper bound of the bucket holding the given quantile (0..1)
+    public double percentileMillis(double quantile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0.0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxNanos.get()) / 1e6;
+            }
+        }
+        return maxMillis();
+    }
+
+    private static int bucket(long value) {
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb < 2) {
+            return (int) value;
+        }
+        int sub = (int) (value >>> (msb - 2)) & (SUB_BUCKETS - 1);
+        return msb * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        int msb = bucket / SUB_BUCKETS;
+        if (msb < 2) {
+            return bucket;
+        }
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (msb - 2)) - 1;
+    }
+}
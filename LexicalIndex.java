@@ -0,0 +1,185 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// In-memory inverted index from terms to document numbers, used to narrow the candidates before
+// any vector is scored. The static helpers turn the user's hard constraints ("No meat, No
+// dairy", "Gluten, Nuts") into exclusion terms, expanding categories such as dairy into the
+// words that actually appear in food descriptions. Terms are lowercased and plurals folded
+// ("nuts" -> "nut"), the same way on both the index and the query side.
+public class LexicalIndex {
+    private static final Pattern WORD = Pattern.compile("[\\p{L}]+");
+    private static final Pattern SEPARATOR = Pattern.compile("\\s*(?:,|;|/|\\band\\b|\\bor\\b)\\s*");
+    private static final Pattern NEGATION = Pattern.compile("^(?:no|non|not|without|avoid|free of|allergic to)\\s+");
+    private static final Set<String> NOTHING = Set.of("", "none", "no", "nothing", "n/a", "na", "nope", "not really");
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "and", "or", "the", "with", "of", "for", "in",
+            "to", "on", "some", "any", "food", "foods", "meal", "meals", "i", "have", "want", "like", "free", "eat",
+            "don", "dont", "can", "cannot", "allergy", "allergic", "restriction", "diet", "intake", "please");
+    private static final Map<String, List<String>> CATEGORIES = new HashMap<>();
+
+    static {
+        CATEGORIES.put("meat", List.of("meat", "beef", "pork", "chicken", "lamb", "mutton", "turkey", "veal", "ham",
+                "bacon", "sausage", "salami", "duck", "goat", "venison"));
+        CATEGORIES.put("fish", List.of("fish", "salmon", "tuna", "cod", "trout", "sardine", "anchovy", "mackerel",
+                "herring", "tilapia", "halibut"));
+        CATEGORIES.put("seafood", List.of("seafood", "shrimp", "prawn", "crab", "lobster", "clam", "oyster", "mussel",
+                "scallop", "squid", "octopus"));
+        CATEGORIES.put("shellfish", List.of("shellfish", "shrimp", "prawn", "crab", "lobster", "clam", "oyster",
+                "mussel", "scallop"));
+        CATEGORIES.put("dairy", List.of("dairy", "milk", "cheese", "butter", "cream", "yogurt", "yoghurt", "whey",
+                "casein", "lactose", "cheddar", "mozzarella", "parmesan", "ghee"));
+        CATEGORIES.put("lactose", CATEGORIES.get("dairy"));
+        CATEGORIES.put("milk", CATEGORIES.get("dairy"));
+        CATEGORIES.put("gluten", List.of("gluten", "wheat", "barley", "rye", "spelt", "semolina", "bread", "pasta",
+                "flour", "couscous", "bulgur", "malt"));
+        CATEGORIES.put("wheat", CATEGORIES.get("gluten"));
+        CATEGORIES.put("nut", List.of("nut", "almond", "walnut", "cashew", "pecan", "hazelnut", "pistachio",
+                "macadamia", "peanut"));
+        CATEGORIES.put("peanut", List.of("peanut", "groundnut"));
+        CATEGORIES.put("egg", List.of("egg", "albumen", "mayonnaise"));
+        CATEGORIES.put("soy", List.of("soy", "soya", "soybean", "tofu", "tempeh", "edamame", "miso"));
+        CATEGORIES.put("pork", List.of("pork", "ham", "bacon", "lard", "salami"));
+        CATEGORIES.put("alcohol", List.of("alcohol", "wine", "beer", "rum", "vodka", "whiskey", "liqueur"));
+        CATEGORIES.put("sugar", List.of("sugar", "syrup", "candy", "sweetened"));
+    }
+
+    private final Map<String, BitSet> postings = new HashMap<>();
+    private int documents;
+
+    public void add(int document, String text) {
+        for (String term : terms(text)) {
+            postings.computeIfAbsent(term, t -> new BitSet()).set(document);
+        }
+        documents = Math.max(documents, document + 1);
+    }
+
+    public int documents() {
+        return documents;
+    }
+
+    public int termCount() {
+        return postings.size();
+    }
+
+    // Documents containing at least one of the terms
+    public BitSet matchingAny(Collection<String> terms) {
+        BitSet matches = new BitSet(documents);
+        for (String term : terms) {
+            BitSet posting = postings.get(fold(term));
+            if (posting != null) {
+                matches.or(posting);
+            }
+        }
+        return matches;
+    }
+
+    // Documents left after the exclusions are removed and, when at least minIncluded of those
+    // match one of the include terms, only those. Fewer matches than that means the words are too
+    // specific to narrow on, so the include side is ignored rather than starving the vector
+    // search of candidates.
+    public BitSet candidates(Collection<String> include, Collection<String> exclude, int minIncluded) {
+        BitSet excluded = matchingAny(exclude);
+        BitSet candidates = matchingAny(include);
+        candidates.andNot(excluded);
+        if (include.isEmpty() || candidates.cardinality() < minIncluded) {
+            candidates.set(0, documents);
+            candidates.andNot(excluded);
+        }
+        return candidates;
+    }
+
+    // Lowercased, plural-folded words of the text, in order of first appearance
+    public static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        Matcher matcher = WORD.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            terms.add(fold(matcher.group()));
+        }
+        return terms;
+    }
+
+    // Words worth matching on in free text such as a query or the available ingredients
+    public static Set<String> queryTerms(String text) {
+        Set<String> terms = terms(text);
+        terms.removeIf(term -> term.length() < 3 || STOP_WORDS.contains(term));
+        return terms;
+    }
+
+    // Terms that must not appear in a retrieved row, from answers like "No meat, No dairy" or
+    // "Gluten, Nuts, Lactose, None". Each listed item is expanded through CATEGORIES.
+    public static Set<String> exclusionTerms(String... constraints) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String constraint : constraints) {
+            if (constraint == null) {
+                continue;
+            }
+            for (String item : SEPARATOR.split(constraint.toLowerCase(Locale.ROOT).trim())) {
+                item = NEGATION.matcher(item.trim()).replaceFirst("");
+                if (NOTHING.contains(item)) {
+                    continue;
+                }
+                for (String term : queryTerms(item)) {
+                    terms.addAll(expand(term));
+                }
+            }
+        }
+        return terms;
+    }
+
+    // Exclusions implied by a diet type; diets that are not about ingredients (keto, low-carb) imply none
+    public static Set<String> dietExclusions(String dietType) {
+        Set<String> terms = new LinkedHashSet<>();
+        Set<String> diet = terms(dietType);
+        if (diet.contains("vegan")) {
+            terms.addAll(exclusionTerms("meat, fish, seafood, dairy, egg, honey, gelatin"));
+        } else if (diet.contains("vegetarian")) {
+            terms.addAll(exclusionTerms("meat, fish, seafood, gelatin"));
+        } else if (diet.contains("pescatarian") || diet.contains("pescetarian")) {
+            terms.addAll(exclusionTerms("meat"));
+        }
+        if (diet.contains("halal") || diet.contains("kosher")) {
+            terms.addAll(exclusionTerms("pork"));
+        }
+        return terms;
+    }
+
+    private static List<String> expand(String term) {
+        List<String> expanded = CATEGORIES.get(term);
+        if (expanded == null) {
+            return List.of(term);
+        }
+        List<String> folded = new ArrayList<>(expanded.size());
+        for (String word : expanded) {
+            folded.add(fold(word));
+        }
+        return folded;
+    }
+
+    // Crude English plural folding, enough to make "nuts", "tomatoes" and "berries" meet their singulars
+    static String fold(String word) {
+        String lower = word.toLowerCase(Locale.ROOT);
+        if (lower.length() > 4 && lower.endsWith("ies")) {
+            return lower.substring(0, lower.length() - 3) + "y";
+        }
+        if (lower.length() > 4 && (lower.endsWith("oes") || lower.endsWith("ches") || lower.endsWith("shes"))) {
+            return lower.substring(0, lower.length() - 2);
+        }
+        if (lower.length() > 3 && lower.endsWith("s") && !lower.endsWith("ss") && !lower.endsWith("us")) {
+            return lower.substring(0, lower.length() - 1);
+        }
+        return lower;
+    }
+}
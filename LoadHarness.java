@@ -0,0 +1,235 @@
+package org.example;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// End-to-end load test without a model. Starts a StubOllamaServer, writes a synthetic corpus
+// shaped like FoodData Central's food.csv, ingests it through Main.processCSVFiles into a fresh
+// database, then fires concurrent /search-style queries (and a share of /suggest ones, which
+// stream from the stub's /api/generate) at the result. Prints rows/sec, query latency
+// percentiles and peak heap for each phase, followed by the per-stage Metrics report.
+//   java -Dloadtest.rows=20000 -Dloadtest.concurrency=8 -Dstub.latencyMillis=5 -Dstub.errorRate=0.01 org.example.LoadHarness
+public class LoadHarness {
+    private static final int ROWS = Integer.getInteger("loadtest.rows", 20000);
+    private static final int FILES = Integer.getInteger("loadtest.files", 4);
+    private static final int QUERIES = Integer.getInteger("loadtest.queries", 1000);
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 8);
+    private static final double SUGGEST_RATIO = Double.parseDouble(System.getProperty("loadtest.suggestRatio", "0.05"));
+    private static final int DIMENSION = Integer.getInteger("loadtest.dimension", 768);
+    private static final long STUB_LATENCY_MILLIS = Long.getLong("stub.latencyMillis", 5);
+    private static final double STUB_ERROR_RATE = Double.parseDouble(System.getProperty("stub.errorRate", "0"));
+    private static final boolean KEEP_FILES = Boolean.getBoolean("loadtest.keep");
+    private static final String DATABASE_FILE = "loadtest.db";
+
+    private static final String[] FOODS = {"apple", "banana", "oat", "rice", "chicken", "beef", "salmon", "tofu",
+            "lentil", "spinach", "tomato", "cheddar", "yogurt", "almond", "peanut", "wheat", "potato", "carrot",
+            "egg", "milk", "bean", "corn", "mushroom", "pepper"};
+    private static final String[] FORMS = {"raw", "cooked", "dried", "frozen", "canned", "roasted", "boiled",
+            "fried", "smoked", "powdered", "sliced", "whole"};
+    private static final String[] DATA_TYPES = {"foundation_food", "sr_legacy_food", "branded_food", "survey_fndds_food"};
+
+    public static void main(String[] args) throws Exception {
+        QueryService.enableTcpNoDelay();
+        // A directory the harness creates is removed whole afterwards; in one that already existed
+        // only the harness's own files are, so -Dloadtest.dir can point somewhere with other contents
+        String requested = System.getProperty("loadtest.dir");
+        Path dir = requested != null ? Path.of(requested) : Files.createTempDirectory("loadtest");
+        boolean ownsDir = requested == null || Files.notExists(dir);
+        Files.createDirectories(dir);
+        Path csvDir = dir.resolve("csv");
+        boolean ownsCsvDir = ownsDir || Files.notExists(csvDir);
+        Files.createDirectories(csvDir);
+        Metrics.startReporter(Long.getLong("metrics.reportSeconds", 0));
+
+        try (StubOllamaServer stub = new StubOllamaServer(0, DIMENSION, STUB_LATENCY_MILLIS, STUB_ERROR_RATE)) {
+            // Main reads these when the class initializes, so they must be set before it is touched
+            System.setProperty("ollama.url", stub.getBaseUrl());
+            System.setProperty("db.url", "jdbc:sqlite:" + dir.resolve(DATABASE_FILE));
+            writeCorpus(csvDir, ROWS, FILES);
+            System.out.println("Load test: " + ROWS + " rows in " + FILES + " files under " + dir + ", stub at "
+                    + stub.getBaseUrl() + " (dimension " + DIMENSION + ")");
+
+            Main.setupDataSource();
+            try (Connection conn = Main.openConnection()) {
+                Main.createTable(conn);
+                Main.buildIndex(conn);
+
+                resetPeakHeap();
+                long start = System.nanoTime();
+                Main.processCSVFiles(csvDir.toString(), conn);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                long stored = countStored(conn);
+                String ingestReport = String.format("Ingestion: %d of %d rows stored in %.1f s, %.0f rows/sec, peak heap %d MB",
+                        stored, ROWS, seconds, stored / seconds, peakHeapBytes() >> 20);
+
+                resetPeakHeap();
+                String queryReport = runQueries(CONCURRENCY, QUERIES);
+
+                System.out.println();
+                System.out.println(ingestReport);
+                System.out.println(queryReport + ", peak heap " + (peakHeapBytes() >> 20) + " MB");
+                System.out.println(stub.report());
+                System.out.print(Metrics.report());
+            }
+        } finally {
+            if (!KEEP_FILES) {
+                if (ownsDir) {
+                    deleteRecursively(dir);
+                } else {
+                    deleteHarnessFiles(dir, csvDir, ownsCsvDir);
+                }
+            }
+        }
+    }
+
+    // Columns follow food.csv; descriptions are unique so content hashing keeps every row
+    private static void writeCorpus(Path csvDir, int rows, int files) throws IOException {
+        Random random = new Random(42);
+        int perFile = (rows + files - 1) / files;
+        int fdcId = 100000;
+        for (int f = 0; f < files; f++) {
+            try (BufferedWriter out = Files.newBufferedWriter(csvDir.resolve(corpusFile(f)), StandardCharsets.UTF_8)) {
+                out.write("\"fdc_id\",\"data_type\",\"description\",\"food_category_id\",\"publication_date\"\n");
+                for (int i = 0; i < perFile && fdcId - 100000 < rows; i++, fdcId++) {
+                    String description = FORMS[random.nextInt(FORMS.length)] + " " + FOODS[random.nextInt(FOODS.length)]
+                            + " with " + FOODS[random.nextInt(FOODS.length)] + ", lot " + fdcId;
+                    out.write(String.format("\"%d\",\"%s\",\"%s\",\"%d\",\"2024-%02d-%02d\"%n", fdcId,
+                            DATA_TYPES[random.nextInt(DATA_TYPES.length)], description, 1 + random.nextInt(28),
+                            1 + random.nextInt(12), 1 + random.nextInt(28)));
+                }
+            }
+        }
+    }
+
+    // Each worker owns a connection, like the query service's workers. Query texts are drawn
+    // from a small vocabulary, so repeated ones exercise the query embedding cache as well.
+    private static String runQueries(int concurrency, int queries) throws Exception {
+        List<String> texts = new ArrayList<>(queries);
+        boolean[] suggests = new boolean[queries];
+        Random random = new Random(7);
+        for (int i = 0; i < queries; i++) {
+            texts.add(FORMS[random.nextInt(FORMS.length)] + " " + FOODS[random.nextInt(FOODS.length)]);
+            suggests[i] = random.nextDouble() < SUGGEST_RATIO;
+        }
+
+        LatencyHistogram searchLatency = new LatencyHistogram();
+        LatencyHistogram suggestLatency = new LatencyHistogram();
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong failed = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        try {
+            List<Future<Void>> workers = new ArrayList<>();
+            for (int w = 0; w < concurrency; w++) {
+                workers.add(pool.submit(() -> {
+                    try (Connection conn = Main.openConnection()) {
+                        int i;
+                        while ((i = next.getAndIncrement()) < queries) {
+                            boolean suggest = suggests[i];
+                            JSONObject request = new JSONObject().put("q", texts.get(i)).put("k", 10);
+                            long queryStart = System.nanoTime();
+                            try {
+                                if (suggest) {
+                                    Main.handleSuggest(conn, request);
+                                } else {
+                                    Main.handleSearch(conn, request);
+                                }
+                                (suggest ? suggestLatency : searchLatency).record(System.nanoTime() - queryStart);
+                            } catch (Exception e) {
+                                failed.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("Queries: %d in %.1f s at concurrency %d, %.1f queries/sec, %d failed%n"
+                        + "  search  n=%d p50=%.2f p99=%.2f max=%.2f ms%n"
+                        + "  suggest n=%d p50=%.2f p99=%.2f max=%.2f ms",
+                queries, seconds, concurrency, queries / seconds, failed.get(),
+                searchLatency.count(), searchLatency.percentileMillis(0.50), searchLatency.percentileMillis(0.99), searchLatency.maxMillis(),
+                suggestLatency.count(), suggestLatency.percentileMillis(0.50), suggestLatency.percentileMillis(0.99), suggestLatency.maxMillis());
+    }
+
+    private static long countStored(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM embeddings WHERE dim > 0")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // Sum of the heap pools' peaks; the pools peak at different moments, so this is an upper bound
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static String corpusFile(int index) {
+        return "food_" + index + ".csv";
+    }
+
+    // The corpus and the database with its WAL and shared-memory files, and nothing else in dir
+    private static void deleteHarnessFiles(Path dir, Path csvDir, boolean ownsCsvDir) throws IOException {
+        if (ownsCsvDir) {
+            deleteRecursively(csvDir);
+        } else {
+            for (int f = 0; f < FILES; f++) {
+                Files.deleteIfExists(csvDir.resolve(corpusFile(f)));
+            }
+        }
+        for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+            Files.deleteIfExists(dir.resolve(DATABASE_FILE + suffix));
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -1,11 +1,7 @@
 package org.example;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.util.Scanner;
-import org.json.JSONObject;
 
 public class Main{
     public static void main(String[] args) {
@@ -99,16 +95,10 @@ public class Main{
                 dislikedCombinations, caloriePreference, proteinPreference, fiberPreference, foodCulture, cuisinePreference
         );
 
-        // Create the JSON payload
-        JSONObject jsonPayload = new JSONObject();
-        jsonPayload.put("model", "llama3.2");
-        jsonPayload.put("prompt", prompt);
-        jsonPayload.put("stream", false);
-
         try {
-            // Send the request to the LLM API
-            String response = sendToLLM(jsonPayload.toString());
-            System.out.println("Response from server: " + response);
+            // Send the request to the LLM API; the answer is printed as it streams in
+            System.out.println("Response from server: ");
+            sendToLLM(prompt);
         } catch (Exception e) {
             System.out.println("An error occurred: " + e.getMessage());
         }
@@ -116,35 +106,15 @@ public class Main{
         scanner.close();
     }
 
-    private static String sendToLLM(String payload) throws Exception {
-        String urlString = "http://localhost:11434/api/generate";
-        URL url = new URL(urlString);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setDoOutput(true);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-
-        try (OutputStream os = connection.getOutputStream()) {
-            os.write(payload.getBytes(StandardCharsets.UTF_8));
-        }
-
-        int responseCode = connection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            Scanner scanner = new Scanner(connection.getInputStream(), StandardCharsets.UTF_8);
-            StringBuilder responseBuilder = new StringBuilder();
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                JSONObject jsonObject = new JSONObject(line);
-                responseBuilder.append(jsonObject.getString("response"));
-                if (jsonObject.getBoolean("done")) {
-                    break;
-                }
-            }
-            scanner.close();
-            return responseBuilder.toString();
-        } else {
-            throw new RuntimeException("Failed to send request. Response code: " + responseCode);
-        }
+    private static String sendToLLM(String prompt) throws IOException {
+        OllamaGenerationClient client = new OllamaGenerationClient("http://localhost:11434", "llama3.2");
+        OllamaGenerationClient.Result result = client.generate(prompt, token -> {
+            System.out.print(token);
+            System.out.flush();
+        }).await();
+        System.out.println();
+        System.out.println(result);
+        return result.getText();
     }
 }
 
@@ -1,242 +1,914 @@
 package org.example;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.sql.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
-import java.util.concurrent.*;
 import javax.sql.DataSource;
 import org.sqlite.SQLiteDataSource;
 
 public class Main {
-    private static final String OLLAMA_URL = "http://localhost:11434/api/embeddings";
+    private static final String OLLAMA_URL = System.getProperty("ollama.url", "http://localhost:11434");
     private static final String MODEL_NAME = "nomic-embed-text";
-    private static final String DATABASE_URL = "jdbc:sqlite:embeddings.db";
-    private static final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private static final String DATABASE_URL = System.getProperty("db.url", "jdbc:sqlite:embeddings.db");
+    private static final int MIGRATION_PAGE_SIZE = 1000;
+    // Rows the baseline stored for failed embeddings, and legacy rows whose JSON did not parse
+    private static final String UNUSABLE_VECTOR = "(dim IS NULL OR dim = 0 OR norm IS NULL OR norm = 0)";
+    private static final String LLM_MODEL = System.getProperty("llm.model", "llama3.2");
+    private static final long LLM_TIMEOUT_SECONDS = Long.getLong("llm.timeoutSeconds", 120);
+    private static final int CONTEXT_TOKEN_BUDGET = Integer.getInteger("context.tokenBudget", 1500);
+    private static final int TOP_K = 50;
+    private static final long METRICS_REPORT_SECONDS = Long.getLong("metrics.reportSeconds", 0);
+    private static final int SERVICE_PORT = Integer.getInteger("service.port", 8080);
+    private static final int SERVICE_WORKERS = Integer.getInteger("service.workers", Runtime.getRuntime().availableProcessors());
+    private static final int SERVICE_QUEUE_CAPACITY = Integer.getInteger("service.queueCapacity", 64);
+    private static final int SERVICE_DRAIN_SECONDS = Integer.getInteger("service.drainSeconds", 30);
+    private static final int SERVICE_MAX_REQUEST_BYTES = Integer.getInteger("service.maxRequestBytes", QueryService.DEFAULT_MAX_REQUEST_BYTES);
+    private static final int SEARCH_MAX_K = Integer.getInteger("search.maxK", 1000);
+    private static final int EXACT_PAGE_SIZE = 1024;
+    // Exclusions always prune the candidates. With -Dsearch.lexicalPrefilter=true, query words also
+    // narrow them, if they match at least k rows; off by default, since it drops semantically close
+    // rows that share no word with the query. Below this fraction of the index, the HNSW walk is
+    // skipped for an exact scan of the candidates
+    private static final boolean LEXICAL_PREFILTER = Boolean.getBoolean("search.lexicalPrefilter");
+    private static final double FILTER_EXACT_FRACTION = Double.parseDouble(System.getProperty("search.filterExactFraction", "0.1"));
+    // "hnsw" (approximate, falls back to exact until the index exists) or "exact"
+    private static final String SEARCH_MODE = System.getProperty("search.mode", "hnsw");
+    private static final int SEARCH_PARALLELISM = Integer.getInteger("search.parallelism", Runtime.getRuntime().availableProcessors());
+    private static final int COMMIT_SIZE = Integer.getInteger("ingest.commitSize", 500);
+    private static final String SYNCHRONOUS = System.getProperty("sqlite.synchronous", "FULL");
+    private static final String BULK_SYNCHRONOUS = System.getProperty("ingest.synchronous", "NORMAL");
+    private static final int INGEST_CHUNK_SIZE = Integer.getInteger("ingest.chunkSize", 64);
+    private static final int INGEST_QUEUE_CAPACITY = Integer.getInteger("ingest.queueCapacity", 16);
+    // "lines" embeds every CSV line; "foods" joins a FoodData Central export into one document per food
+    private static final String INGEST_MODE = System.getProperty("ingest.mode", "lines");
+    private static final int INGEST_SORT_RUN_ROWS = Integer.getInteger("ingest.sortRunRows", 500000);
+    private static final int INGEST_MAX_ATTEMPTS = Integer.getInteger("ingest.maxAttempts", 4);
+    private static final long INGEST_RETRY_BASE_MILLIS = Long.getLong("ingest.retryBaseMillis", 500);
+    private static final boolean INGEST_RETRY_DEAD_LETTERS = Boolean.getBoolean("ingest.retryDeadLetters");
+    private static final int INGEST_PARALLEL_FILES = Integer.getInteger("ingest.parallelFiles", 4);
+    private static final long INGEST_PROGRESS_SECONDS = Long.getLong("ingest.progressSeconds", 10);
+    private static final int HNSW_M = Integer.getInteger("hnsw.m", 16);
+    private static final int HNSW_EF_CONSTRUCTION = Integer.getInteger("hnsw.efConstruction", 200);
+    private static final int HNSW_EF_SEARCH = Integer.getInteger("hnsw.efSearch", 64);
+    // search.mode=ivf reads only the nprobe nearest partitions of the disk-resident IVF index
+    private static final int IVF_NPROBE = Integer.getInteger("ivf.nprobe", 8);
+    private static final int IVF_SAMPLE_PER_PARTITION = Integer.getInteger("ivf.samplePerPartition", 64);
+    private static final int IVF_ITERATIONS = Integer.getInteger("ivf.iterations", 10);
+    private static final int EMBED_BATCH_SIZE = Integer.getInteger("embed.batchSize", 64);
+    private static final int EMBED_MIN_CONCURRENCY = Integer.getInteger("embed.minConcurrency", 1);
+    private static final int EMBED_INITIAL_CONCURRENCY = Integer.getInteger("embed.initialConcurrency", 4);
+    private static final int EMBED_MAX_CONCURRENCY = Integer.getInteger("embed.maxConcurrency", 64);
+    private static final OllamaEmbeddingClient embeddingClient = new OllamaEmbeddingClient(OLLAMA_URL, MODEL_NAME, EMBED_BATCH_SIZE);
+    private static final AdaptiveEmbeddingScheduler embeddingScheduler = new AdaptiveEmbeddingScheduler(
+            embeddingClient, EMBED_MIN_CONCURRENCY, EMBED_INITIAL_CONCURRENCY, EMBED_MAX_CONCURRENCY);
     private static DataSource dataSource;
+    private static final ParallelExactSearch exactSearch = new ParallelExactSearch(SEARCH_PARALLELISM);
+    private static final EmbeddingCache queryCache = new EmbeddingCache(
+            Integer.getInteger("query.cacheSize", 1000), Long.getLong("query.cacheTtlSeconds", 3600));
+    private static final OllamaGenerationClient llmClient = new OllamaGenerationClient(OLLAMA_URL, LLM_MODEL);
+    private static volatile HnswIndex index;
+    private static volatile IvfIndex ivf;
 
     public static void main(String[] args) {
         System.out.println("Program started...");
+        QueryService.enableTcpNoDelay();
+        Metrics.startReporter(METRICS_REPORT_SECONDS);
         setupDataSource();
 
+        boolean serving = args.length > 0 && args[0].equals("serve");
         try (Connection conn = dataSource.getConnection()) {
+            createTable(conn);
+            if (args.length > 0 && args[0].equals("ivf-train")) {
+                // Offline re-clustering, e.g. ivf-train 256; defaults to about sqrt(rows) partitions
+                int partitions = args.length > 1 ? Integer.parseInt(args[1]) : defaultIvfPartitions(conn);
+                IvfIndex.train(conn, partitions, partitions * IVF_SAMPLE_PER_PARTITION, IVF_ITERATIONS, 42L);
+                System.out.println(IvfIndex.report(conn));
+                return;
+            }
+            if (args.length > 0 && args[0].equals("ivf-report")) {
+                // e.g. ivf-report 1,2,4,8,16,32
+                String nprobeList = args.length > 1 ? args[1] : "1,2,4,8,16,32";
+                int[] nprobes = Arrays.stream(nprobeList.split(",")).mapToInt(Integer::parseInt).toArray();
+                IvfIndex trained = IvfIndex.load(conn);
+                System.out.println(trained == null ? IvfIndex.report(conn) : trained.recallReport(conn, exactSearch, 200, TOP_K, nprobes));
+                return;
+            }
+            if (SEARCH_MODE.equals("ivf")) {
+                loadIvfIndex(conn);
+            } else {
+                buildIndex(conn);
+            }
+            if (args.length > 0 && args[0].equals("hnsw-report")) {
+                // e.g. hnsw-report 16,32,64,128,256
+                String efList = args.length > 1 ? args[1] : "16,32,64,128,256";
+                int[] efValues = Arrays.stream(efList.split(",")).mapToInt(Integer::parseInt).toArray();
+                System.out.println(index == null ? "No vectors indexed" : index.recallReport(200, TOP_K, efValues));
+                return;
+            }
             processCSVFiles("/home/fatemeh/Downloads/FoodData_Central_csv_2024-10-31(1)/FoodData_Central_csv_2024-10-31", conn);
+            if (serving) {
+                serve(args.length > 1 ? Integer.parseInt(args[1]) : SERVICE_PORT);
+                return;
+            }
             queryUserInput(conn);
         } catch (SQLException e) {
             System.err.println("Database connection error: " + e.getMessage());
         } catch (Exception e) {
             System.err.println("Unexpected error: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            embeddingScheduler.close();
+            exactSearch.close();
+            // In serve mode the shutdown hook prints the final report
+            if (!serving) {
+                System.out.print(Metrics.report());
+            }
         }
     }
 
-    private static void setupDataSource() {
+    // The methods below are package-private so LoadHarness can drive ingestion and queries in-process
+    static void setupDataSource() {
         SQLiteDataSource ds = new SQLiteDataSource();
         ds.setUrl(DATABASE_URL);
+        ds.setJournalMode("WAL");
+        ds.setSynchronous(SYNCHRONOUS);
         dataSource = ds;
     }
 
-    private static void processCSVFiles(String directoryPath, Connection conn) {
+    static Connection openConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    static void processCSVFiles(String directoryPath, Connection conn) {
         File dir = new File(directoryPath);
         if (!dir.exists() || !dir.isDirectory()) {
             System.err.println("Directory not found: " + directoryPath);
             return;
         }
 
-        try {
-            createTable(conn);
-            List<Path> csvFiles = Files.list(Paths.get(directoryPath))
-                    .filter(path -> path.toString().endsWith(".csv"))
-                    .collect(Collectors.toList());
+        IngestionPipeline.Settings settings = new IngestionPipeline.Settings();
+        settings.workers = Integer.getInteger("ingest.workers", embeddingScheduler.getMaxLimit());
+        settings.chunkSize = INGEST_CHUNK_SIZE;
+        settings.queueCapacity = INGEST_QUEUE_CAPACITY;
+        settings.commitSize = COMMIT_SIZE;
+        settings.bulkSynchronous = BULK_SYNCHRONOUS;
+        settings.ivf = ivf;
+        settings.maxAttempts = INGEST_MAX_ATTEMPTS;
+        settings.retryBaseMillis = INGEST_RETRY_BASE_MILLIS;
+        settings.retryDeadLetters = INGEST_RETRY_DEAD_LETTERS;
+        settings.progressSeconds = INGEST_PROGRESS_SECONDS;
+        EmbeddingWriter.CommitListener listener = SEARCH_MODE.equals("ivf") ? null : Main::indexVector;
+
+        // Files are streamed through the pipeline; new rows reach the HNSW index once their batch commits,
+        // or in ivf mode are assigned to their IVF partitions within that commit.
+        // The lookup connection serves content-hash and manifest checks alongside the writer.
+        // The manifest table is created before the pipeline opens the writer's transaction; creating
+        // it afterwards from lookupConn would invalidate that snapshot and fail the first commit
+        try (Connection lookupConn = dataSource.getConnection()) {
+            FileManifest manifest = new FileManifest(lookupConn, MODEL_NAME);
+            try (IngestionPipeline pipeline = new IngestionPipeline(conn, lookupConn, MODEL_NAME, embeddingScheduler::embed,
+                    settings, listener)) {
+                if (INGEST_RETRY_DEAD_LETTERS) {
+                    System.out.println("Retried dead letters: " + pipeline.retryDeadLetters());
+                }
+                if (INGEST_MODE.equals("foods")) {
+                    ingestFoodDocuments(Paths.get(directoryPath), pipeline, manifest);
+                    return;
+                }
+                List<Path> csvFiles = Files.list(Paths.get(directoryPath))
+                        .filter(path -> path.toString().endsWith(".csv"))
+                        .collect(Collectors.toList());
+
+                // Manifest checks come first, while nothing else is writing
+                Map<Path, FileManifest.FileState> changed = new LinkedHashMap<>();
+                for (Path path : csvFiles) {
+                    try {
+                        FileManifest.FileState state = manifest.stat(path);
+                        if (manifest.isUnchanged(state)) {
+                            System.out.println("Skipping unchanged file: " + path);
+                            if (state.isTouched()) {
+                                pipeline.write(writerConn -> manifest.record(writerConn, state));
+                            }
+                            continue;
+                        }
+                        changed.put(path, state);
+                    } catch (IOException e) {
+                        System.err.println("Error reading file " + path + ": " + e.getMessage());
+                    }
+                }
 
-            for (Path path : csvFiles) {
-                System.out.println("Processing file: " + path);
-                processCSVFile(path, conn);
+                // Several files are read and embedded at once, so the embedding workers are not left
+                // idle while one file starts up or drains; all of them share the pipeline's writer
+                ExecutorService readers = Executors.newFixedThreadPool(Math.max(1, Math.min(INGEST_PARALLEL_FILES, changed.size())));
+                try {
+                    List<Future<?>> files = new ArrayList<>();
+                    for (Map.Entry<Path, FileManifest.FileState> file : changed.entrySet()) {
+                        files.add(readers.submit(() -> {
+                            ingestFile(file.getKey(), file.getValue(), pipeline, manifest);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> file : files) {
+                        try {
+                            file.get();
+                        } catch (ExecutionException e) {
+                            System.err.println("Error ingesting file: " + e.getCause());
+                        }
+                    }
+                } finally {
+                    readers.shutdownNow();
+                }
+                System.out.println("Ingestion finished: " + pipeline.report());
+                System.out.println("Embedding scheduler: " + embeddingScheduler.report());
+                reportDeadLetters(pipeline);
             }
         } catch (IOException e) {
             System.err.println("Error reading directory: " + e.getMessage());
         } catch (SQLException e) {
             System.err.println("SQL error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Ingestion interrupted");
+        }
+    }
+
+    private static void ingestFile(Path path, FileManifest.FileState state, IngestionPipeline pipeline,
+                                   FileManifest manifest) throws InterruptedException {
+        try {
+            System.out.println("Processing file: " + path);
+            IngestionPipeline.FileResult result = pipeline.ingest(path);
+            System.out.println("Stored " + result);
+            // Files with failed rows stay unrecorded so the next run retries them, resuming
+            // from the journal's watermark; dead-lettered rows do not hold a file back.
+            // The record goes through the pipeline's writer rather than a second writing connection
+            if (result.getRowsFailed() == 0) {
+                manifest.prepare(state);
+                pipeline.write(writerConn -> manifest.record(writerConn, state));
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading file " + path + ": " + e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error recording file " + path + ": " + e.getMessage());
+        }
+    }
+
+    // Embeds one document per food instead of one per line. The export counts as unchanged only
+    // when every input file is, and is recorded only when no document failed.
+    private static void ingestFoodDocuments(Path dir, IngestionPipeline pipeline, FileManifest manifest)
+            throws IOException, SQLException, InterruptedException {
+        if (!FoodDocuments.isExport(dir)) {
+            System.err.println("No " + FoodDocuments.FOOD + " in " + dir + "; ingest.mode=foods needs a FoodData Central export");
+            return;
+        }
+        List<FileManifest.FileState> states = new ArrayList<>();
+        boolean unchanged = true;
+        for (Path input : FoodDocuments.inputs(dir)) {
+            FileManifest.FileState state = manifest.stat(input);
+            states.add(state);
+            unchanged &= manifest.isUnchanged(state);
+        }
+        if (unchanged) {
+            System.out.println("Skipping unchanged export: " + dir);
+            pipeline.write(writerConn -> {
+                for (FileManifest.FileState state : states) {
+                    if (state.isTouched()) {
+                        manifest.record(writerConn, state);
+                    }
+                }
+            });
+            return;
+        }
+        System.out.println("Joining food documents from " + dir);
+        try (FoodDocuments documents = FoodDocuments.open(dir, INGEST_SORT_RUN_ROWS)) {
+            IngestionPipeline.FileResult result = pipeline.ingest(dir.resolve(FoodDocuments.FOOD), FoodDocuments.version(dir), documents);
+            System.out.println("Stored " + result);
+            System.out.println("Joined " + documents.report());
+            if (result.getRowsFailed() == 0) {
+                for (FileManifest.FileState state : states) {
+                    manifest.prepare(state);
+                }
+                pipeline.write(writerConn -> {
+                    for (FileManifest.FileState state : states) {
+                        manifest.record(writerConn, state);
+                    }
+                });
+            }
         }
+        System.out.println("Ingestion finished: " + pipeline.report());
+        System.out.println("Embedding scheduler: " + embeddingScheduler.report());
+        reportDeadLetters(pipeline);
     }
 
-    private static void createTable(Connection conn) throws SQLException {
-        String sql = "CREATE TABLE IF NOT EXISTS embeddings (id INTEGER PRIMARY KEY AUTOINCREMENT, text TEXT, vector TEXT)";
+    private static void reportDeadLetters(IngestionPipeline pipeline) throws SQLException {
+        int deadLetters = pipeline.deadLetterCount();
+        if (deadLetters > 0) {
+            System.out.println(deadLetters + " rows are in dead_letter; run with -Dingest.retryDeadLetters=true to retry them");
+        }
+    }
+
+    static void createTable(Connection conn) throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS embeddings (id INTEGER PRIMARY KEY AUTOINCREMENT, text TEXT, content_hash TEXT, vector BLOB, dim INTEGER, norm REAL)";
         try (Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
         }
+        migrateLegacyVectors(conn);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_embeddings_content_hash ON embeddings (content_hash)");
+        }
+        backfillContentHashes(conn);
+        createLexicalIndex(conn);
+        IvfIndex.createTables(conn);
     }
 
-    private static void processCSVFile(Path path, Connection conn) {
-        try {
-            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
-            List<JSONArray> embeddings = getBatchEmbeddings(lines);
-
-            for (int i = 0; i < lines.size(); i++) {
-                saveEmbedding(conn, lines.get(i), embeddings.get(i).toString());
+    // FTS5 index over embeddings.text for the lexical pre-filter. It is an external-content
+    // table, so it stores only the index, and triggers keep it in step with the embeddings table.
+    private static void createLexicalIndex(Connection conn) throws SQLException {
+        boolean exists;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE name = 'embeddings_fts'")) {
+            exists = rs.next();
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS embeddings_fts USING fts5("
+                    + "text, content='embeddings', content_rowid='id', tokenize='porter unicode61')");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS embeddings_fts_insert AFTER INSERT ON embeddings BEGIN "
+                    + "INSERT INTO embeddings_fts (rowid, text) VALUES (new.id, new.text); END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS embeddings_fts_delete AFTER DELETE ON embeddings BEGIN "
+                    + "INSERT INTO embeddings_fts (embeddings_fts, rowid, text) VALUES ('delete', old.id, old.text); END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS embeddings_fts_update AFTER UPDATE OF text ON embeddings BEGIN "
+                    + "INSERT INTO embeddings_fts (embeddings_fts, rowid, text) VALUES ('delete', old.id, old.text); "
+                    + "INSERT INTO embeddings_fts (rowid, text) VALUES (new.id, new.text); END");
+            if (!exists) {
+                long start = System.currentTimeMillis();
+                stmt.execute("INSERT INTO embeddings_fts (embeddings_fts) VALUES ('rebuild')");
+                System.out.println("Built the lexical index in " + (System.currentTimeMillis() - start) + " ms");
             }
-        } catch (IOException e) {
-            System.err.println("Error reading file " + path + ": " + e.getMessage());
-        } catch (Exception e) {
-            System.err.println("Error processing file " + path + ": " + e.getMessage());
         }
     }
 
-    private static List<JSONArray> getBatchEmbeddings(List<String> texts) {
-        List<JSONArray> embeddings = new ArrayList<>();
-        List<Future<JSONArray>> futures = new ArrayList<>();
+    // Rows written before content hashing have no key. Hash them in id order; a row whose hash
+    // is already taken is a duplicate of an earlier row and is removed. Rows without a usable
+    // vector (the baseline stored failed embeddings as []) are never hashed, and give up any
+    // hash an earlier backfill gave them, so their text is embedded again on the next ingest.
+    private static void backfillContentHashes(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            int released = stmt.executeUpdate("UPDATE embeddings SET content_hash = NULL WHERE content_hash IS NOT NULL AND "
+                    + UNUSABLE_VECTOR);
+            if (released > 0) {
+                System.out.println(released + " rows without a vector will be embedded again");
+            }
+        }
+        String selectSql = "SELECT id, text FROM embeddings WHERE content_hash IS NULL AND NOT " + UNUSABLE_VECTOR
+                + " AND id > ? ORDER BY id LIMIT " + MIGRATION_PAGE_SIZE;
+        String updateSql = "UPDATE OR IGNORE embeddings SET content_hash = ? WHERE id = ?";
+        boolean autoCommit = conn.getAutoCommit();
+        int hashed = 0;
+        int lastId = 0;
+        try (PreparedStatement select = conn.prepareStatement(selectSql);
+             PreparedStatement update = conn.prepareStatement(updateSql)) {
+            conn.setAutoCommit(false);
+            while (true) {
+                int page = 0;
+                select.setInt(1, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        lastId = rs.getInt("id");
+                        String text = rs.getString("text");
+                        update.setString(1, ContentHashes.of(MODEL_NAME, text == null ? "" : text));
+                        update.setInt(2, lastId);
+                        update.addBatch();
+                        page++;
+                    }
+                }
+                if (page == 0) {
+                    break;
+                }
+                update.executeBatch();
+                conn.commit();
+                hashed += page;
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        if (hashed > 0) {
+            try (Statement stmt = conn.createStatement()) {
+                int removed = stmt.executeUpdate("DELETE FROM embeddings WHERE content_hash IS NULL AND NOT " + UNUSABLE_VECTOR);
+                System.out.println("Hashed " + hashed + " existing rows, removed " + removed + " duplicates");
+            }
+        }
+    }
 
-        for (String text : texts) {
-            futures.add(executor.submit(() -> getEmbedding(text)));
+    // Older databases declared "vector TEXT" and stored JSON arrays. Add the dim/norm columns
+    // if they are missing and rewrite any TEXT vectors as packed float32 BLOBs, a page at a time.
+    // Rows whose JSON does not parse are logged and left as they are.
+    private static void migrateLegacyVectors(Connection conn) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(embeddings)")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            if (!columns.contains("dim")) {
+                stmt.execute("ALTER TABLE embeddings ADD COLUMN dim INTEGER");
+            }
+            if (!columns.contains("norm")) {
+                stmt.execute("ALTER TABLE embeddings ADD COLUMN norm REAL");
+            }
+            if (!columns.contains("content_hash")) {
+                stmt.execute("ALTER TABLE embeddings ADD COLUMN content_hash TEXT");
+            }
         }
 
-        for (Future<JSONArray> future : futures) {
-            try {
-                embeddings.add(future.get());
-            } catch (InterruptedException | ExecutionException e) {
-                System.err.println("Error fetching embedding: " + e.getMessage());
-                embeddings.add(new JSONArray());
+        String selectSql = "SELECT id, vector FROM embeddings WHERE typeof(vector) = 'text' AND id > ? ORDER BY id LIMIT " + MIGRATION_PAGE_SIZE;
+        String updateSql = "UPDATE embeddings SET vector = ?, dim = ?, norm = ? WHERE id = ?";
+        boolean autoCommit = conn.getAutoCommit();
+        int migrated = 0;
+        int skipped = 0;
+        int lastId = 0;
+        try (PreparedStatement select = conn.prepareStatement(selectSql);
+             PreparedStatement update = conn.prepareStatement(updateSql)) {
+            conn.setAutoCommit(false);
+            while (true) {
+                int page = 0;
+                int updated = 0;
+                select.setInt(1, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        lastId = rs.getInt("id");
+                        page++;
+                        float[] vector;
+                        try {
+                            vector = parseEmbedding(new JSONArray(rs.getString("vector")));
+                        } catch (JSONException e) {
+                            System.err.println("Skipping row " + lastId + " with a malformed legacy vector: " + e.getMessage());
+                            skipped++;
+                            continue;
+                        }
+                        update.setBytes(1, VectorCodec.encode(vector));
+                        update.setInt(2, vector.length);
+                        update.setFloat(3, VectorCodec.norm(vector));
+                        update.setInt(4, lastId);
+                        update.addBatch();
+                        updated++;
+                    }
+                }
+                if (page == 0) {
+                    break;
+                }
+                update.executeBatch();
+                conn.commit();
+                migrated += updated;
             }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        if (skipped > 0) {
+            System.err.println(skipped + " rows kept their unreadable JSON vectors");
+        }
+        if (migrated > 0) {
+            System.out.println("Migrated " + migrated + " JSON vectors to packed float32 BLOBs");
         }
-        return embeddings;
     }
 
-    private static JSONArray getEmbedding(String text) {
-        try {
-            URL url = new URL(OLLAMA_URL);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
-            connection.setRequestProperty("Content-Type", "application/json");
+    // Loads every stored vector into the HNSW graph so queries do not scan the table
+    static void buildIndex(Connection conn) throws SQLException {
+        long start = System.currentTimeMillis();
+        String sql = "SELECT id, vector FROM embeddings WHERE dim > 0 ORDER BY id";
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                indexVector(rs.getInt("id"), VectorCodec.decode(rs.getBytes("vector")));
+            }
+        }
+        if (index != null) {
+            System.out.println("Indexed " + index.size() + " vectors in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
 
-            JSONObject jsonPayload = new JSONObject();
-            jsonPayload.put("model", MODEL_NAME);
-            jsonPayload.put("prompt", text);
+    // Loads the IVF centroids and assigns rows stored since the index last ran. Only the
+    // centroids are held in memory; the vectors stay in the database.
+    static void loadIvfIndex(Connection conn) throws SQLException {
+        ivf = IvfIndex.load(conn);
+        if (ivf == null) {
+            System.out.println("IVF index not trained (run with ivf-train); searches use the exact scan");
+            return;
+        }
+        int assigned = ivf.assignNew(conn);
+        if (assigned > 0) {
+            System.out.println("Assigned " + assigned + " new vectors to IVF partitions");
+        }
+        System.out.println(IvfIndex.report(conn));
+    }
 
-            try (OutputStream os = connection.getOutputStream()) {
-                os.write(jsonPayload.toString().getBytes(StandardCharsets.UTF_8));
-            }
+    private static int defaultIvfPartitions(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM embeddings WHERE norm > 0")) {
+            return Math.max(1, (int) Math.sqrt(rs.next() ? rs.getInt(1) : 0));
+        }
+    }
 
-            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    String response = br.lines().collect(Collectors.joining());
-                    return new JSONObject(response).getJSONArray("embedding");
+    private static void indexVector(int id, float[] vector) {
+        if (vector.length == 0) {
+            return;
+        }
+        if (index == null) {
+            synchronized (Main.class) {
+                if (index == null) {
+                    index = new HnswIndex(vector.length, HNSW_M, HNSW_EF_CONSTRUCTION, HNSW_EF_SEARCH);
                 }
-            } else {
-                System.err.println("Failed to get embedding, HTTP response code: " + connection.getResponseCode());
             }
+        }
+        if (vector.length == index.dimension()) {
+            index.add(id, vector);
+        }
+    }
+
+    // Query embeddings go through the LRU cache, so repeated queries skip Ollama
+    private static float[] getEmbedding(String text) {
+        try {
+            return queryCache.get(text, embeddingClient::embed);
         } catch (IOException e) {
             System.err.println("Network error while fetching embedding: " + e.getMessage());
         } catch (Exception e) {
             System.err.println("Error processing embedding request: " + e.getMessage());
         }
-        return new JSONArray();
+        Metrics.count("embed.failed", 1);
+        return new float[0];
     }
 
-    private static void saveEmbedding(Connection conn, String text, String vector) {
-        String sql = "INSERT INTO embeddings (text, vector) VALUES (?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, text);
-            stmt.setString(2, vector);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("Error saving embedding: " + e.getMessage());
+    private static float[] parseEmbedding(JSONArray array) {
+        float[] embedding = new float[array.length()];
+        for (int i = 0; i < embedding.length; i++) {
+            embedding[i] = array.getFloat(i);
         }
+        return embedding;
     }
 
+    // Answers queries until an empty line. Results carry the vectors already stored in the
+    // embeddings table, so nothing but the query itself is sent to the model.
     private static void queryUserInput(Connection conn) {
         Scanner scanner = new Scanner(System.in);
-        System.out.println("Enter a query:");
-        String userInput = scanner.nextLine();
+        while (true) {
+            System.out.println("Enter a query (empty line to quit):");
+            if (!scanner.hasNextLine()) {
+                break;
+            }
+            String userInput = scanner.nextLine();
+            if (userInput.isBlank()) {
+                break;
+            }
 
-        try {
-            JSONArray userEmbedding = getEmbedding(userInput);
-            List<String> closestTexts = findClosestEmbeddings(conn, userEmbedding);
+            try {
+                float[] userEmbedding = getEmbedding(userInput);
+                List<StoredEmbedding> closest = findClosestEmbeddings(conn, userEmbedding, LexicalFilter.of(userInput, Set.of()));
 
-            // Send the retrieved texts to Ollama and get the response
-            StringBuilder responseBuilder = new StringBuilder();
-            for (String text : closestTexts) {
-                JSONArray embeddingResponse = getEmbedding(text);
-                responseBuilder.append("Response for text: ").append(text).append("\n")
-                        .append("Embedding: ").append(embeddingResponse.toString()).append("\n");
-            }
+                StringBuilder responseBuilder = new StringBuilder();
+                for (StoredEmbedding result : closest) {
+                    responseBuilder.append("Response for text: ").append(result.text).append("\n")
+                            .append("Embedding: ").append(Arrays.toString(result.vector)).append("\n");
+                }
 
-            System.out.println("Final response: " + responseBuilder.toString());
-        } catch (Exception e) {
-            System.err.println("Error fetching user query embedding: " + e.getMessage());
+                System.out.println("Final response: " + responseBuilder.toString());
+                System.out.println(queryCache.report());
+            } catch (Exception e) {
+                System.err.println("Error fetching user query embedding: " + e.getMessage());
+            }
         }
     }
 
-    private static List<String> findClosestEmbeddings(Connection conn, JSONArray userEmbedding) throws SQLException {
-        List<String> closestTexts = new ArrayList<>();
+    // Resident mode: serves /search and /suggest until the process is stopped. Each worker
+    // borrows one of a fixed set of connections, so nothing is opened per request.
+    private static void serve(int port) throws IOException, SQLException, InterruptedException {
+        BlockingQueue<Connection> connections = new ArrayBlockingQueue<>(SERVICE_WORKERS);
+        for (int i = 0; i < SERVICE_WORKERS; i++) {
+            connections.put(dataSource.getConnection());
+        }
+        QueryService service = new QueryService(port, SERVICE_WORKERS, SERVICE_QUEUE_CAPACITY, SERVICE_DRAIN_SECONDS,
+                SERVICE_MAX_REQUEST_BYTES)
+                .register("/search", request -> withConnection(connections, conn -> handleSearch(conn, request)))
+                .register("/suggest", request -> withConnection(connections, conn -> handleSuggest(conn, request)));
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            service.close();
+            System.out.println(service.report());
+            System.out.print(Metrics.report());
+            System.out.println(queryCache.report());
+            stopped.countDown();
+        }));
+        service.start();
+        System.out.println("Query service listening on http://localhost:" + service.getPort() + " (/search, /suggest)");
+        stopped.await();
+        for (Connection conn : connections) {
+            conn.close();
+        }
+    }
 
-        String sql = "SELECT id, text, vector FROM embeddings";
-        try (PreparedStatement stmt = conn.prepareStatement(sql);
-             ResultSet rs = stmt.executeQuery()) {
+    private interface ConnectionTask {
+        JSONObject run(Connection conn) throws Exception;
+    }
 
-            Map<Integer, Double> distances = new HashMap<>();
-            List<Map.Entry<Integer, Double>> sortedEntries = new ArrayList<>();
+    private static JSONObject withConnection(BlockingQueue<Connection> connections, ConnectionTask task) throws Exception {
+        Connection conn = connections.take();
+        try {
+            return task.run(conn);
+        } finally {
+            connections.put(conn);
+        }
+    }
 
-            while (rs.next()) {
-                String storedVectorStr = rs.getString("vector");
-                JSONArray storedVector = new JSONArray(storedVectorStr);
+    // {"q": "...", "k": 10, "exclude": "nuts, dairy", "diet": "vegan"} -> {"results": [{"id", "text", "score"}]}
+    // Rows mentioning an excluded ingredient, or one the diet rules out, are never scored
+    static JSONObject handleSearch(Connection conn, JSONObject request) throws SQLException {
+        String query = request.optString("q", "");
+        if (query.isBlank()) {
+            throw new IllegalArgumentException("Missing query parameter q");
+        }
+        Set<String> exclusions = new LinkedHashSet<>(LexicalIndex.exclusionTerms(request.optString("exclude", "")));
+        exclusions.addAll(LexicalIndex.dietExclusions(request.optString("diet", "")));
+        float[] queryEmbedding = getEmbedding(query);
+        if (queryEmbedding.length == 0) {
+            throw new IllegalStateException("Failed to embed the query");
+        }
+        float queryNorm = SimilarityKernels.norm(queryEmbedding);
+        JSONArray results = new JSONArray();
+        int k = QueryService.k(request, TOP_K, SEARCH_MAX_K);
+        for (StoredEmbedding hit : findClosestEmbeddings(conn, queryEmbedding, k, LexicalFilter.of(query, exclusions))) {
+            JSONObject result = new JSONObject();
+            result.put("id", hit.id);
+            result.put("text", hit.text);
+            result.put("score", SimilarityKernels.cosine(queryEmbedding, queryNorm, hit.vector, SimilarityKernels.norm(hit.vector)));
+            results.put(result);
+        }
+        return new JSONObject().put("results", results);
+    }
 
-                double distance = calculateCosineDistance(userEmbedding, storedVector);
-                distances.put(rs.getInt("id"), distance);
+    // {"q": "..."} -> the LLM's suggestion grounded in the closest stored rows
+    static JSONObject handleSuggest(Connection conn, JSONObject request) throws SQLException, IOException {
+        JSONObject search = handleSearch(conn, request);
+        ContextBuilder context = new ContextBuilder(CONTEXT_TOKEN_BUDGET);
+        String prompt;
+        try (Metrics.Sample sample = Metrics.start("prompt.build")) {
+            JSONArray results = search.getJSONArray("results");
+            for (int i = 0; i < results.length(); i++) {
+                JSONObject hit = results.getJSONObject(i);
+                context.addLine(hit.getString("text"), hit.getFloat("score"));
             }
+            prompt = "You are a smart cooking assistant. Suggest a meal for this request: " + request.getString("q")
+                    + (request.optString("exclude").isBlank() ? "" : "\nMust avoid: " + request.getString("exclude"))
+                    + (request.optString("diet").isBlank() ? "" : "\nDiet: " + request.getString("diet"))
+                    + "\n\nRelevant Data:\n" + context.build();
+            sample.items(results.length()).succeeded();
+        }
+        OllamaGenerationClient.Result generation = llmClient.generate(prompt, token -> { }).await(Duration.ofSeconds(LLM_TIMEOUT_SECONDS));
+        JSONObject response = new JSONObject();
+        response.put("suggestion", generation.getText());
+        response.put("cancelled", generation.isCancelled());
+        response.put("ttftMillis", generation.getTimeToFirstTokenMillis());
+        response.put("tokensPerSecond", generation.getTokensPerSecond());
+        response.put("context", context.report());
+        return response;
+    }
 
-            // Sort the distances to get the 50 closest vectors
-            distances.entrySet().stream()
-                    .sorted(Map.Entry.comparingByValue())
-                    .limit(50)
-                    .forEach(entry -> {
-                        try {
-                            // Ensure we query text data while ResultSet is still open
-                            String text = getTextFromId(conn, entry.getKey());
-                            closestTexts.add(text);
-                        } catch (SQLException e) {
-                            System.err.println("Error fetching text for closest embedding: " + e.getMessage());
-                        }
-                    });
+    private static List<StoredEmbedding> findClosestEmbeddings(Connection conn, float[] userEmbedding, LexicalFilter filter) throws SQLException {
+        return findClosestEmbeddings(conn, userEmbedding, TOP_K, filter);
+    }
+
+    private static List<StoredEmbedding> findClosestEmbeddings(Connection conn, float[] userEmbedding, int k,
+                                                               LexicalFilter filter) throws SQLException {
+        try (Metrics.Sample sample = Metrics.start("search.scan").items(k)) {
+            List<StoredEmbedding> results = searchIndexOrScan(conn, userEmbedding, k, filter.resolve(conn, k));
+            sample.succeeded();
+            return results;
+        }
+    }
+
+    private static List<StoredEmbedding> searchIndexOrScan(Connection conn, float[] userEmbedding, int k,
+                                                           LexicalFilter filter) throws SQLException {
+        if (SEARCH_MODE.equals("ivf")) {
+            return searchIvfOrScan(conn, userEmbedding, k, filter);
+        }
+        HnswIndex current = index;
+        if (SEARCH_MODE.equals("exact") || current == null || current.dimension() != userEmbedding.length
+                || (filter.includeMatch != null && filter.includeCount <= current.size() * FILTER_EXACT_FRACTION)) {
+            return findClosestEmbeddingsExact(conn, userEmbedding, k, exactSearch, filter);
+        }
+
+        List<HnswIndex.Neighbor> neighbors = filter.isEmpty()
+                ? current.search(userEmbedding, k)
+                : current.search(userEmbedding, k, current.getEfSearch(), filter.acceptor(conn));
+        int[] ids = new int[neighbors.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = neighbors.get(i).id;
+        }
+        return getStoredByIds(conn, ids);
+    }
+
+    // Probes the IVF partitions nearest to the query. A selective filter goes to the exact scan
+    // instead, since its few candidates may sit in partitions that are not probed.
+    private static List<StoredEmbedding> searchIvfOrScan(Connection conn, float[] userEmbedding, int k,
+                                                         LexicalFilter filter) throws SQLException {
+        IvfIndex current = ivf;
+        if (current == null || current.dimension() != userEmbedding.length
+                || (filter.includeMatch != null && filter.includeCount <= current.size() * FILTER_EXACT_FRACTION)) {
+            return findClosestEmbeddingsExact(conn, userEmbedding, k, exactSearch, filter);
         }
-        return closestTexts;
+        current.refresh(conn);
+        TopK hits = current.search(conn, userEmbedding, k, IVF_NPROBE, exactSearch,
+                filter.isEmpty() ? null : filter.acceptor(conn));
+        // Rows deleted from embeddings since the last re-clustering drop out here
+        return getStoredByIds(conn, hits.ids());
     }
 
-    private static String getTextFromId(Connection conn, int id) throws SQLException {
-        String text = "";
-        String sql = "SELECT text FROM embeddings WHERE id = ?";
+    // Exact scan over every stored vector that passes the filter. The filter is pushed into the
+    // SQL, so rows it rules out are never read. Rows are read in pages of EXACT_PAGE_SIZE and each
+    // page is scored on the search's pool while the next one is read; the caller picks the
+    // parallelism through the ParallelExactSearch it passes in.
+    private static List<StoredEmbedding> findClosestEmbeddingsExact(Connection conn, float[] userEmbedding, int k,
+                                                                    ParallelExactSearch search, LexicalFilter filter) throws SQLException {
+        ParallelExactSearch.PagedSearch closest = search.pagedSearch(userEmbedding, k);
+
+        // Failed (empty) embeddings and vectors from a different model are filtered out here
+        String sql = "SELECT id, vector, norm FROM embeddings WHERE dim = ? AND norm > 0" + filter.sqlClauses();
         try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, id);
+            stmt.setInt(1, userEmbedding.length);
+            filter.bind(stmt, 2);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int[] ids = new int[EXACT_PAGE_SIZE];
+                byte[][] vectors = new byte[EXACT_PAGE_SIZE][];
+                float[] norms = new float[EXACT_PAGE_SIZE];
+                int count = 0;
+                while (rs.next()) {
+                    ids[count] = rs.getInt("id");
+                    vectors[count] = rs.getBytes("vector");
+                    norms[count] = rs.getFloat("norm");
+                    if (++count == EXACT_PAGE_SIZE) {
+                        closest.add(ids, vectors, norms, count);
+                        ids = new int[EXACT_PAGE_SIZE];
+                        vectors = new byte[EXACT_PAGE_SIZE][];
+                        norms = new float[EXACT_PAGE_SIZE];
+                        count = 0;
+                    }
+                }
+                closest.add(ids, vectors, norms, count);
+            }
+        }
+        return getStoredByIds(conn, closest.finish().ids());
+    }
+
+    // Fetches the stored text and vector for all hits in one query instead of one round trip
+    // per id, returned in the same order as the ids
+    private static List<StoredEmbedding> getStoredByIds(Connection conn, int[] ids) throws SQLException {
+        List<StoredEmbedding> results = new ArrayList<>();
+        if (ids.length == 0) {
+            return results;
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT id, text, vector FROM embeddings WHERE id IN (");
+        for (int i = 0; i < ids.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        Map<Integer, StoredEmbedding> byId = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < ids.length; i++) {
+                stmt.setInt(i + 1, ids[i]);
+            }
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    text = rs.getString("text");
+                while (rs.next()) {
+                    byte[] vector = rs.getBytes("vector");
+                    byId.put(rs.getInt("id"), new StoredEmbedding(rs.getInt("id"), rs.getString("text"),
+                            vector == null ? new float[0] : VectorCodec.decode(vector)));
                 }
             }
         }
-        return text;
+        for (int id : ids) {
+            StoredEmbedding result = byId.get(id);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
     }
 
-    private static double calculateCosineDistance(JSONArray userEmbedding, JSONArray storedEmbedding) {
-        // Assuming both embeddings are of equal length and represent vector data
-        double dotProduct = 0.0;
-        double userNorm = 0.0;
-        double storedNorm = 0.0;
+    // Lexical pre-filter as FTS5 match expressions: rows must match includeMatch, if set, and must
+    // not match excludeMatch. includeCount is the number of rows includeMatch matched, once resolved.
+    private static final class LexicalFilter {
+        private static final String MATCHING = "SELECT rowid FROM embeddings_fts WHERE embeddings_fts MATCH ?";
+
+        final String includeMatch;
+        final String excludeMatch;
+        final int includeCount;
+
+        private LexicalFilter(String includeMatch, String excludeMatch, int includeCount) {
+            this.includeMatch = includeMatch;
+            this.excludeMatch = excludeMatch;
+            this.includeCount = includeCount;
+        }
+
+        static LexicalFilter of(String query, Set<String> exclusions) {
+            return new LexicalFilter(LEXICAL_PREFILTER ? matchAny(LexicalIndex.queryTerms(query)) : null,
+                    matchAny(exclusions), -1);
+        }
+
+        // Quoted terms joined with OR; the porter tokenizer on the index folds plurals and suffixes
+        private static String matchAny(Set<String> terms) {
+            if (terms.isEmpty()) {
+                return null;
+            }
+            return terms.stream().map(term -> "\"" + term.replace("\"", "") + "\"").collect(Collectors.joining(" OR "));
+        }
+
+        boolean isEmpty() {
+            return includeMatch == null && excludeMatch == null;
+        }
+
+        // Drops the include side when fewer than k rows match it and survive the exclusions, so
+        // a rare query word cannot shrink the results below k
+        LexicalFilter resolve(Connection conn, int k) throws SQLException {
+            if (includeMatch == null) {
+                return this;
+            }
+            int count = 0;
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM (" + MATCHING + ")")) {
+                stmt.setString(1, excludeMatch == null ? includeMatch : "(" + includeMatch + ") NOT (" + excludeMatch + ")");
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        count = rs.getInt(1);
+                    }
+                }
+            }
+            return count < k ? new LexicalFilter(null, excludeMatch, -1) : new LexicalFilter(includeMatch, excludeMatch, count);
+        }
+
+        String sqlClauses() {
+            return (includeMatch == null ? "" : " AND id IN (" + MATCHING + ")")
+                    + (excludeMatch == null ? "" : " AND id NOT IN (" + MATCHING + ")");
+        }
 
-        for (int i = 0; i < userEmbedding.length(); i++) {
-            double userValue = userEmbedding.getDouble(i);
-            double storedValue = storedEmbedding.getDouble(i);
-            dotProduct += userValue * storedValue;
-            userNorm += userValue * userValue;
-            storedNorm += storedValue * storedValue;
+        void bind(PreparedStatement stmt, int index) throws SQLException {
+            if (includeMatch != null) {
+                stmt.setString(index++, includeMatch);
+            }
+            if (excludeMatch != null) {
+                stmt.setString(index, excludeMatch);
+            }
+        }
+
+        // Candidate ids materialized for the HNSW walk and the IVF probe
+        IntPredicate acceptor(Connection conn) throws SQLException {
+            BitSet included = includeMatch == null ? null : matchingIds(conn, includeMatch);
+            BitSet excluded = excludeMatch == null ? new BitSet() : matchingIds(conn, excludeMatch);
+            return id -> (included == null || included.get(id)) && !excluded.get(id);
         }
 
-        return 1.0 - (dotProduct / (Math.sqrt(userNorm) * Math.sqrt(storedNorm)));
+        private static BitSet matchingIds(Connection conn, String match) throws SQLException {
+            BitSet ids = new BitSet();
+            try (PreparedStatement stmt = conn.prepareStatement(MATCHING)) {
+                stmt.setString(1, match);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        ids.set(rs.getInt(1));
+                    }
+                }
+            }
+            return ids;
+        }
+    }
+
+    // A search hit with the text and vector as they are stored in the embeddings table
+    private static final class StoredEmbedding {
+        final int id;
+        final String text;
+        final float[] vector;
+
+        StoredEmbedding(int id, String text, float[] vector) {
+            this.id = id;
+            this.text = text;
+            this.vector = vector;
+        }
     }
 }
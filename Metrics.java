@@ -0,0 +1,125 @@
+package org.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide latency histograms and counters per stage, reported periodically on stdout
+// and emitted as org.example.Stage JFR events. Stage names used across the code:
+//   csv.read, embed.request, db.commit, search.scan, prompt.build, llm.ttft, llm.total
+// and counters such as embed.failed (rows whose embedding failed) and llm.tokens.
+//
+//   try (Metrics.Sample sample = Metrics.start("db.commit")) {
+//       ...
+//       sample.items(rows);
+//   }
+// A sample closed without succeeded() counts as failed, so an exception thrown out of the
+// block is recorded as a failure of that stage.
+public final class Metrics {
+    private static final Map<String, LatencyHistogram> STAGES = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final long START_NANOS = System.nanoTime();
+    private static ScheduledExecutorService reporter;
+
+    private Metrics() {
+    }
+
+    public static Sample start(String stage) {
+        return new Sample(stage);
+    }
+
+    // For latencies measured elsewhere, such as time to first token
+    public static void record(String stage, long nanos, long items) {
+        histogram(stage).record(nanos);
+        StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = stage;
+            event.items = items;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    public static void count(String counter, long delta) {
+        COUNTERS.computeIfAbsent(counter, name -> new LongAdder()).add(delta);
+    }
+
+    public static long counter(String counter) {
+        LongAdder adder = COUNTERS.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public static LatencyHistogram histogram(String stage) {
+        return STAGES.computeIfAbsent(stage, name -> new LatencyHistogram());
+    }
+
+    public static String report() {
+        double seconds = Math.max(1e-9, (System.nanoTime() - START_NANOS) / 1e9);
+        StringBuilder report = new StringBuilder(String.format("Metrics after %.0f s%n", seconds));
+        for (Map.Entry<String, LatencyHistogram> stage : STAGES.entrySet()) {
+            LatencyHistogram h = stage.getValue();
+            report.append(String.format("  %-14s n=%-8d %8.1f/s  mean=%.2f p50=%.2f p95=%.2f p99=%.2f max=%.2f ms%n",
+                    stage.getKey(), h.count(), h.count() / seconds, h.meanMillis(), h.percentileMillis(0.50),
+                    h.percentileMillis(0.95), h.percentileMillis(0.99), h.maxMillis()));
+        }
+        for (Map.Entry<String, LongAdder> counter : COUNTERS.entrySet()) {
+            report.append(String.format("  %-14s %d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        return report.toString();
+    }
+
+    // Prints report() every periodSeconds on a daemon thread; 0 or less disables it
+    public static synchronized void startReporter(long periodSeconds) {
+        if (periodSeconds <= 0 || reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.print(report()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public static final class Sample implements AutoCloseable {
+        private final String stage;
+        private final long startNanos = System.nanoTime();
+        private final StageEvent event = new StageEvent();
+        private long items;
+        private boolean succeeded;
+
+        private Sample(String stage) {
+            this.stage = stage;
+            event.begin();
+        }
+
+        public Sample items(long items) {
+            this.items = items;
+            return this;
+        }
+
+        public void succeeded() {
+            succeeded = true;
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - startNanos;
+            histogram(stage).record(nanos);
+            if (!succeeded) {
+                count(stage + ".failed", 1);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage;
+                event.items = items;
+                event.failed = !succeeded;
+                event.latency = nanos;
+                event.commit();
+            }
+        }
+    }
+}
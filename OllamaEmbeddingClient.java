@@ -0,0 +1,109 @@
+package org.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Embedding client for Ollama's /api/embed endpoint. Texts are packed into the "input" array
+// batchSize at a time, and one shared HttpClient keeps connections alive between requests,
+// so a chunk of rows costs one round trip instead of one connection per row.
+public class OllamaEmbeddingClient {
+    private final HttpClient httpClient;
+    private final URI embedUri;
+    private final String model;
+    private final int batchSize;
+    private final Duration requestTimeout;
+
+    public OllamaEmbeddingClient(String baseUrl, String model, int batchSize) {
+        this(baseUrl, model, batchSize, Duration.ofMinutes(2));
+    }
+
+    public OllamaEmbeddingClient(String baseUrl, String model, int batchSize, Duration requestTimeout) {
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.embedUri = URI.create(baseUrl + "/api/embed");
+        this.model = model;
+        this.batchSize = Math.max(1, batchSize);
+        this.requestTimeout = requestTimeout;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public float[] embed(String text) throws IOException {
+        return embed(List.of(text)).get(0);
+    }
+
+    // Returns one vector per text, in input order
+    public List<float[]> embed(List<String> texts) throws IOException {
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (int start = 0; start < texts.size(); start += batchSize) {
+            vectors.addAll(embedBatch(texts.subList(start, Math.min(texts.size(), start + batchSize))));
+        }
+        return vectors;
+    }
+
+    // A failed request shows up as embed.request.failed; the rows it leaves without a vector
+    // are counted as embed.failed by the caller that drops them
+    private List<float[]> embedBatch(List<String> texts) throws IOException {
+        try (Metrics.Sample sample = Metrics.start("embed.request").items(texts.size())) {
+            List<float[]> vectors = requestBatch(texts);
+            sample.succeeded();
+            return vectors;
+        }
+    }
+
+    private List<float[]> requestBatch(List<String> texts) throws IOException {
+        JSONObject payload = new JSONObject();
+        payload.put("model", model);
+        payload.put("input", new JSONArray(texts));
+
+        HttpRequest request = HttpRequest.newBuilder(embedUri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload.toString()))
+                .build();
+
+        HttpResponse<String> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for embeddings");
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Failed to get embeddings, HTTP response code: " + response.statusCode());
+        }
+
+        JSONArray embeddings = new JSONObject(response.body()).getJSONArray("embeddings");
+        if (embeddings.length() != texts.size()) {
+            throw new IOException("Expected " + texts.size() + " embeddings but got " + embeddings.length());
+        }
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (int i = 0; i < embeddings.length(); i++) {
+            JSONArray values = embeddings.getJSONArray(i);
+            float[] vector = new float[values.length()];
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] = values.getFloat(j);
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+}
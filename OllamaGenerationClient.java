@@ -0,0 +1,235 @@
+package org.example;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Streaming client for Ollama's /api/generate. The NDJSON response is read line by line and
+// each token is handed to the listener as soon as it arrives, instead of after "done".
+// generate() returns at once with a Generation handle that can be cancelled mid-stream;
+// cancelling closes the connection, which also makes Ollama stop generating.
+public class OllamaGenerationClient {
+    public interface TokenListener {
+        void onToken(String token);
+    }
+
+    private final HttpClient httpClient;
+    private final URI generateUri;
+    private final String model;
+
+    public OllamaGenerationClient(String baseUrl, String model) {
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.generateUri = URI.create(baseUrl + "/api/generate");
+        this.model = model;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public Generation generate(String prompt, TokenListener listener) {
+        JSONObject payload = new JSONObject();
+        payload.put("model", model);
+        payload.put("prompt", prompt);
+        payload.put("stream", true);
+
+        HttpRequest request = HttpRequest.newBuilder(generateUri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload.toString()))
+                .build();
+        Generation generation = new Generation(request, listener);
+        generation.reader.start();
+        return generation;
+    }
+
+    // Outcome of one request. Tokens are counted as streamed chunks, which is one token per
+    // chunk for Ollama; tokens/sec covers the time after the first token.
+    public static final class Result {
+        private final String text;
+        private final boolean cancelled;
+        private final long timeToFirstTokenNanos;
+        private final long totalNanos;
+        private final int tokens;
+
+        Result(String text, boolean cancelled, long timeToFirstTokenNanos, long totalNanos, int tokens) {
+            this.text = text;
+            this.cancelled = cancelled;
+            this.timeToFirstTokenNanos = timeToFirstTokenNanos;
+            this.totalNanos = totalNanos;
+            this.tokens = tokens;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // -1 when no token arrived
+        public double getTimeToFirstTokenMillis() {
+            return timeToFirstTokenNanos < 0 ? -1 : timeToFirstTokenNanos / 1e6;
+        }
+
+        public double getTotalMillis() {
+            return totalNanos / 1e6;
+        }
+
+        public int getTokens() {
+            return tokens;
+        }
+
+        public double getTokensPerSecond() {
+            long decodeNanos = totalNanos - timeToFirstTokenNanos;
+            return tokens > 1 && timeToFirstTokenNanos >= 0 && decodeNanos > 0 ? (tokens - 1) / (decodeNanos / 1e9) : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Generation%s: ttft=%.0f ms, %d tokens in %.0f ms, %.1f tokens/s",
+                    cancelled ? " (cancelled)" : "", getTimeToFirstTokenMillis(), tokens, getTotalMillis(), getTokensPerSecond());
+        }
+    }
+
+    public final class Generation {
+        private final HttpRequest request;
+        private final TokenListener listener;
+        private final StringBuilder text = new StringBuilder();
+        private volatile boolean cancelled;
+        private volatile Stream<String> lines;
+        private final Thread reader;
+        private Result result;
+        private IOException failure;
+
+        private Generation(HttpRequest request, TokenListener listener) {
+            this.request = request;
+            this.listener = listener;
+            this.reader = Thread.ofVirtual().name("llm-stream").unstarted(this::run);
+        }
+
+        public void cancel() {
+            cancelled = true;
+            Stream<String> current = lines;
+            if (current != null) {
+                current.close();
+            }
+            reader.interrupt();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Waits for the stream to finish or be cancelled. A cancelled generation returns the
+        // text received so far rather than throwing.
+        public Result await() throws IOException {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the generation");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+
+        // As await(), but cancels the generation if it is still streaming after timeout
+        public Result await(Duration timeout) throws IOException {
+            try {
+                if (!reader.join(timeout)) {
+                    cancel();
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the generation");
+            }
+            return await();
+        }
+
+        private void run() {
+            long start = System.nanoTime();
+            long firstToken = -1;
+            int tokens = 0;
+            try {
+                HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+                lines = response.body();
+                if (cancelled) {
+                    lines.close();
+                }
+                if (response.statusCode() != 200) {
+                    String body = response.body().collect(Collectors.joining("\n"));
+                    throw new IOException("Failed to send request. Response code: " + response.statusCode() + " " + body);
+                }
+                Iterator<String> it = lines.iterator();
+                while (!cancelled && it.hasNext()) {
+                    String line = it.next();
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    JSONObject chunk = new JSONObject(line);
+                    if (chunk.has("error")) {
+                        throw new IOException("Generation failed: " + chunk.getString("error"));
+                    }
+                    String token = chunk.optString("response", "");
+                    if (!token.isEmpty()) {
+                        if (firstToken < 0) {
+                            firstToken = System.nanoTime();
+                        }
+                        tokens++;
+                        text.append(token);
+                        try {
+                            listener.onToken(token);
+                        } catch (RuntimeException e) {
+                            throw new IOException("Token listener failed: " + e, e);
+                        }
+                    }
+                    if (chunk.optBoolean("done", false)) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Cancelled before the response headers arrived
+            } catch (IOException | RuntimeException e) {
+                // Closing the stream from cancel() surfaces here as an I/O or state error. Anything
+                // else is caught too, so result is always set and await() never returns null
+                if (!cancelled) {
+                    failure = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+                }
+            } finally {
+                Stream<String> current = lines;
+                if (current != null) {
+                    current.close();
+                }
+            }
+            long end = System.nanoTime();
+            result = new Result(text.toString(), cancelled, firstToken < 0 ? -1 : firstToken - start, end - start, tokens);
+            if (firstToken >= 0) {
+                Metrics.record("llm.ttft", firstToken - start, 1);
+            }
+            Metrics.record("llm.total", end - start, tokens);
+            Metrics.count("llm.tokens", tokens);
+            if (failure != null) {
+                Metrics.count("llm.failed", 1);
+            } else if (cancelled) {
+                Metrics.count("llm.cancelled", 1);
+            }
+        }
+    }
+}
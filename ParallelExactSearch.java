@@ -0,0 +1,264 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+// Exact cosine top-K over every vector, split into shards that are scored in parallel on a
+// ForkJoinPool. Each shard keeps its own TopK and the shards are merged pairwise as they join;
+// TopK breaks ties by id, so the result is identical to a sequential scan at any parallelism.
+// A parallelism of 1 runs everything on the calling thread.
+public final class ParallelExactSearch implements AutoCloseable {
+    // Rows below this are scored in one shard; splitting further costs more than it saves
+    private static final int MIN_SHARD_ROWS = 1024;
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    public ParallelExactSearch(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+        this.pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    public TopK search(VectorSource source, float[] query, int k) {
+        return search(source, query, k, null);
+    }
+
+    // Only rows set in allowed are read and scored; null scores every row
+    public TopK search(VectorSource source, float[] query, int k, BitSet allowed) {
+        float queryNorm = SimilarityKernels.norm(query);
+        if (query.length != source.dimension() || queryNorm == 0f || source.size() == 0) {
+            return new TopK(Math.max(1, k));
+        }
+        // A few shards per worker so one slow shard does not leave the other cores idle
+        int rows = allowed == null ? source.size() : allowed.cardinality();
+        int shardRows = Math.max(MIN_SHARD_ROWS, rows / (parallelism * 4) + 1);
+        if (allowed != null) {
+            // Shards split the row range, so widen each shard by how sparse the allowed rows are
+            shardRows = (int) Math.min(source.size(), (long) shardRows * source.size() / Math.max(1, rows));
+        }
+        SourceShard root = new SourceShard(source, query, queryNorm, Math.max(1, k), shardRows, allowed, 0, source.size());
+        return pool == null ? root.compute() : pool.invoke(root);
+    }
+
+    // Search over vectors that arrive in pages, such as packed BLOBs read from SQLite. Each
+    // page is scored on the pool while the caller reads the next one.
+    public PagedSearch pagedSearch(float[] query, int k) {
+        return pagedSearch(query, k, null);
+    }
+
+    // Only ids that accept allows are scored; null scores every row
+    public PagedSearch pagedSearch(float[] query, int k, IntPredicate accept) {
+        return new PagedSearch(query, Math.max(1, k), accept);
+    }
+
+    // Times the search at each parallelism against the sequential result, using sampled stored
+    // vectors as queries, and checks that every run returns exactly the same ids
+    public static String scalingReport(VectorSource source, int queryCount, int k, int[] parallelisms) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Exact search over %d vectors of dimension %d, top %d%n", source.size(), source.dimension(), k));
+        if (source.size() == 0) {
+            return report.toString();
+        }
+
+        Random random = new Random(7L);
+        float[][] queries = new float[queryCount][source.dimension()];
+        for (float[] q : queries) {
+            source.read(random.nextInt(source.size()), q);
+        }
+        int[][] expected = new int[queryCount][];
+        double baseline = 0.0;
+        try (ParallelExactSearch sequential = new ParallelExactSearch(1)) {
+            long start = System.nanoTime();
+            for (int q = 0; q < queryCount; q++) {
+                expected[q] = sequential.search(source, queries[q], k).ids();
+            }
+            baseline = (System.nanoTime() - start) / 1e6 / queryCount;
+        }
+        report.append(String.format("  parallelism %-3d avg=%.3f ms%n", 1, baseline));
+
+        for (int p : parallelisms) {
+            if (p == 1) {
+                continue;
+            }
+            try (ParallelExactSearch search = new ParallelExactSearch(p)) {
+                search.search(source, queries[0], k);
+                int mismatches = 0;
+                long start = System.nanoTime();
+                for (int q = 0; q < queryCount; q++) {
+                    if (!Arrays.equals(expected[q], search.search(source, queries[q], k).ids())) {
+                        mismatches++;
+                    }
+                }
+                double avg = (System.nanoTime() - start) / 1e6 / queryCount;
+                report.append(String.format("  parallelism %-3d avg=%.3f ms  speedup=%.2fx  mismatches=%d%n",
+                        p, avg, baseline / avg, mismatches));
+            }
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    public final class PagedSearch {
+        private final float[] query;
+        private final float queryNorm;
+        private final int k;
+        private final IntPredicate accept;
+        private final Deque<ForkJoinTask<TopK>> pending = new ArrayDeque<>();
+        private final TopK merged;
+
+        private PagedSearch(float[] query, int k, IntPredicate accept) {
+            this.query = query;
+            this.queryNorm = SimilarityKernels.norm(query);
+            this.k = k;
+            this.accept = accept;
+            this.merged = new TopK(k);
+        }
+
+        // Takes ownership of the arrays; rows with a zero norm or another dimension are skipped
+        public void add(int[] ids, byte[][] vectors, float[] norms, int count) {
+            if (queryNorm == 0f || count == 0) {
+                return;
+            }
+            submit(ForkJoinTask.adapt(() -> scorePage(ids, vectors, norms, count)));
+        }
+
+        // A page stored as one BLOB of count consecutive little-endian float32 vectors
+        public void addPacked(int[] ids, byte[] vectors, float[] norms, int count) {
+            if (queryNorm == 0f || count == 0 || vectors.length != count * query.length * Float.BYTES) {
+                return;
+            }
+            submit(ForkJoinTask.adapt(() -> scorePackedPage(ids, vectors, norms, count)));
+        }
+
+        private void submit(ForkJoinTask<TopK> page) {
+            if (pool == null) {
+                merged.addAll(page.invoke());
+                return;
+            }
+            pool.execute(page);
+            pending.addLast(page);
+            // Bound the pages held in memory to a couple per worker
+            while (pending.size() > parallelism * 2) {
+                merged.addAll(pending.removeFirst().join());
+            }
+        }
+
+        public TopK finish() {
+            while (!pending.isEmpty()) {
+                merged.addAll(pending.removeFirst().join());
+            }
+            return merged;
+        }
+
+        private TopK scorePage(int[] ids, byte[][] vectors, float[] norms, int count) {
+            TopK shard = new TopK(k);
+            float[] vector = new float[query.length];
+            for (int i = 0; i < count; i++) {
+                if (norms[i] == 0f || VectorCodec.dimension(vectors[i]) != query.length
+                        || (accept != null && !accept.test(ids[i]))) {
+                    continue;
+                }
+                VectorCodec.decodeInto(vectors[i], vector);
+                shard.offer(ids[i], SimilarityKernels.cosine(query, queryNorm, vector, norms[i]));
+            }
+            return shard;
+        }
+
+        private TopK scorePackedPage(int[] ids, byte[] vectors, float[] norms, int count) {
+            TopK shard = new TopK(k);
+            float[] vector = new float[query.length];
+            FloatBuffer packed = ByteBuffer.wrap(vectors).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            for (int i = 0; i < count; i++) {
+                if (norms[i] == 0f || (accept != null && !accept.test(ids[i]))) {
+                    continue;
+                }
+                packed.get(i * query.length, vector);
+                shard.offer(ids[i], SimilarityKernels.cosine(query, queryNorm, vector, norms[i]));
+            }
+            return shard;
+        }
+    }
+
+    // Never serialized; ForkJoinTask just happens to implement Serializable
+    @SuppressWarnings("serial")
+    private static final class SourceShard extends RecursiveTask<TopK> {
+        private final VectorSource source;
+        private final float[] query;
+        private final float queryNorm;
+        private final int k;
+        private final int shardRows;
+        private final BitSet allowed;
+        private final int from;
+        private final int to;
+
+        SourceShard(VectorSource source, float[] query, float queryNorm, int k, int shardRows, BitSet allowed,
+                    int from, int to) {
+            this.source = source;
+            this.query = query;
+            this.queryNorm = queryNorm;
+            this.k = k;
+            this.shardRows = shardRows;
+            this.allowed = allowed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from <= shardRows) {
+                return scan();
+            }
+            int mid = (from + to) >>> 1;
+            SourceShard left = new SourceShard(source, query, queryNorm, k, shardRows, allowed, from, mid);
+            SourceShard right = new SourceShard(source, query, queryNorm, k, shardRows, allowed, mid, to);
+            left.fork();
+            TopK merged = right.compute();
+            merged.addAll(left.join());
+            return merged;
+        }
+
+        private TopK scan() {
+            TopK shard = new TopK(k);
+            float[] vector = new float[source.dimension()];
+            for (int row = next(from); row < to; row = next(row + 1)) {
+                float norm = source.norm(row);
+                if (norm != 0f) {
+                    source.read(row, vector);
+                    shard.offer(row, SimilarityKernels.cosine(query, queryNorm, vector, norm));
+                }
+            }
+            return shard;
+        }
+
+        private int next(int row) {
+            if (allowed == null) {
+                return row;
+            }
+            int next = allowed.nextSetBit(row);
+            return next < 0 ? to : next;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+// Int8 scalar-quantized vector store for cosine search. Each vector is normalized and stored
+// as dimension signed bytes in one contiguous array with a per-vector scale (maxAbs / 127),
+// about a quarter of the float[] footprint. Queries are scored with integer dot products over
+// the codes, and the best k * rerankFactor candidates are re-scored exactly against the
+// full-precision vectors, which stay on disk. Norms come from the full-precision source.
+// Over a VectorSnapshot the codes and scales are the snapshot's own mapped sections, so
+// opening the store reads nothing and pages come in as searches touch them.
+public class QuantizedVectorStore implements AutoCloseable {
+    private final VectorSource fullPrecision;
+    private final FloatVectorFile appendFile;
+    private final int dimension;
+    private final boolean mapped;
+    private ByteBuffer codes;
+    private FloatBuffer scales;
+    private int size;
+
+    // Writable store whose full-precision copies are appended to spillFile
+    public QuantizedVectorStore(Path spillFile, int dimension) throws IOException {
+        this.appendFile = new FloatVectorFile(spillFile, dimension);
+        this.fullPrecision = appendFile;
+        this.dimension = dimension;
+        this.mapped = false;
+        this.codes = ByteBuffer.allocate(dimension * 1024);
+        this.scales = FloatBuffer.allocate(1024);
+    }
+
+    // Read-only store that quantizes every row of an existing source
+    public QuantizedVectorStore(VectorSource source) {
+        this.appendFile = null;
+        this.fullPrecision = source;
+        this.dimension = source.dimension();
+        this.mapped = false;
+        int rows = Math.max(1, source.size());
+        this.codes = ByteBuffer.allocate(dimension * rows);
+        this.scales = FloatBuffer.allocate(rows);
+        float[] vector = new float[dimension];
+        for (int row = 0; row < source.size(); row++) {
+            source.read(row, vector);
+            quantizeInto(row, vector, source.norm(row));
+            size++;
+        }
+    }
+
+    // Read-only store over the codes and scales the snapshot was written with
+    public QuantizedVectorStore(VectorSnapshot snapshot) {
+        this.appendFile = null;
+        this.fullPrecision = snapshot;
+        this.dimension = snapshot.dimension();
+        this.mapped = true;
+        this.codes = snapshot.codes();
+        this.scales = snapshot.scales();
+        this.size = snapshot.size();
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Heap held by the codes and scales, for comparison with float[] storage; 0 when mapped
+    public synchronized long heapBytes() {
+        return mapped ? 0 : (long) size * (dimension + Float.BYTES);
+    }
+
+    public synchronized int add(float[] vector) {
+        if (appendFile == null) {
+            throw new IllegalStateException("Store is read-only");
+        }
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + vector.length);
+        }
+        if (size == scales.capacity()) {
+            int grown = size * 2;
+            codes = ByteBuffer.wrap(Arrays.copyOf(codes.array(), grown * dimension));
+            scales = FloatBuffer.wrap(Arrays.copyOf(scales.array(), grown));
+        }
+        int row = appendFile.append(vector);
+        quantizeInto(row, vector, appendFile.norm(row));
+        size++;
+        return row;
+    }
+
+    private void quantizeInto(int row, float[] vector, float norm) {
+        scales.put(row, norm == 0f ? 0f : quantize(vector, norm, codes.array(), row * dimension));
+    }
+
+    // Writes the normalized vector as int8 codes at offset and returns the scale; also used
+    // by VectorSnapshot, so mapped codes match the ones built in memory
+    static float quantize(float[] vector, float norm, byte[] dst, int offset) {
+        float maxAbs = 0f;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v / norm));
+        }
+        if (maxAbs == 0f) {
+            return 0f;
+        }
+        float scale = maxAbs / 127f;
+        for (int i = 0; i < vector.length; i++) {
+            dst[offset + i] = (byte) Math.round(vector[i] / norm / scale);
+        }
+        return scale;
+    }
+
+    public TopK search(float[] query, int k, int rerankFactor) {
+        return search(query, k, rerankFactor, null);
+    }
+
+    // Only rows set in allowed are scored; null scores every row
+    public TopK search(float[] query, int k, int rerankFactor, BitSet allowed) {
+        TopK results = new TopK(Math.max(1, k));
+        float queryNorm = SimilarityKernels.norm(query);
+        if (query.length != dimension || queryNorm == 0f) {
+            return results;
+        }
+        byte[] queryCodes = new byte[dimension];
+        // The query's own scale is the same for every row, so it does not change the ranking
+        quantize(query, queryNorm, queryCodes, 0);
+
+        // add() only writes rows at or past size, and replaces the arrays when it grows them, so
+        // the rows below the size seen here stay fixed and can be scanned without the lock
+        int rows;
+        ByteBuffer codes;
+        FloatBuffer scales;
+        synchronized (this) {
+            rows = size;
+            codes = this.codes;
+            scales = this.scales;
+        }
+        TopK candidates = new TopK(Math.max(1, k * Math.max(1, rerankFactor)));
+        for (int row = first(allowed); row >= 0 && row < rows; row = next(allowed, row)) {
+            float scale = scales.get(row);
+            if (scale == 0f) {
+                continue;
+            }
+            int offset = row * dimension;
+            int dot = 0;
+            for (int i = 0; i < dimension; i++) {
+                dot += queryCodes[i] * codes.get(offset + i);
+            }
+            candidates.offer(row, dot * scale);
+        }
+
+        // Exact cosine on the survivors, read back from the full-precision copies
+        float[] vector = new float[dimension];
+        for (int row : candidates.ids()) {
+            fullPrecision.read(row, vector);
+            results.offer(row, SimilarityKernels.cosine(query, queryNorm, vector, fullPrecision.norm(row)));
+        }
+        return results;
+    }
+
+    private static int first(BitSet allowed) {
+        return allowed == null ? 0 : allowed.nextSetBit(0);
+    }
+
+    private static int next(BitSet allowed, int row) {
+        return allowed == null ? row + 1 : allowed.nextSetBit(row + 1);
+    }
+
+    // Exact cosine over every full-precision vector; the baseline for recall measurements
+    public TopK searchExact(float[] query, int k) {
+        TopK results = new TopK(Math.max(1, k));
+        float queryNorm = SimilarityKernels.norm(query);
+        if (query.length != dimension || queryNorm == 0f) {
+            return results;
+        }
+        float[] vector = new float[dimension];
+        for (int row = 0; row < size(); row++) {
+            float norm = fullPrecision.norm(row);
+            if (norm == 0f) {
+                continue;
+            }
+            fullPrecision.read(row, vector);
+            results.offer(row, SimilarityKernels.cosine(query, queryNorm, vector, norm));
+        }
+        return results;
+    }
+
+    // Recall@k of quantized search against exact search for each rerank factor, using
+    // sampled stored vectors as queries
+    public String recallReport(int queryCount, int k, int[] rerankFactors) {
+        int rows = size();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Quantized store: %d vectors, %.1f MB codes%s vs %.1f MB float32%n",
+                rows, (double) rows * (dimension + Float.BYTES) / 1e6, mapped ? " (mapped)" : "", (double) rows * dimension * Float.BYTES / 1e6));
+        if (rows == 0) {
+            return report.toString();
+        }
+
+        Random random = new Random(7L);
+        float[][] queries = new float[Math.min(queryCount, rows)][dimension];
+        int[][] truth = new int[queries.length][];
+        for (int q = 0; q < queries.length; q++) {
+            fullPrecision.read(random.nextInt(rows), queries[q]);
+            truth[q] = searchExact(queries[q], k).ids();
+            Arrays.sort(truth[q]);
+        }
+        for (int factor : rerankFactors) {
+            double recall = 0.0;
+            long nanos = 0;
+            for (int q = 0; q < queries.length; q++) {
+                long start = System.nanoTime();
+                int[] found = search(queries[q], k, factor).ids();
+                nanos += System.nanoTime() - start;
+                int hits = 0;
+                for (int id : found) {
+                    if (Arrays.binarySearch(truth[q], id) >= 0) {
+                        hits++;
+                    }
+                }
+                recall += hits / (double) Math.max(1, truth[q].length);
+            }
+            report.append(String.format("  rerank x%-3d recall@%d=%.4f  avg=%.3f ms%n",
+                    factor, k, recall / queries.length, nanos / 1e6 / queries.length));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (appendFile != null) {
+            appendFile.close();
+        }
+    }
+}
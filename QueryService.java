@@ -0,0 +1,240 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Resident local HTTP front end, so the database, vector store and HTTP clients are set up once
+// and stay warm between requests. Connections are accepted on virtual threads; the work itself
+// runs on a fixed pool of workers behind a bounded queue, and requests that find the queue
+// full get 503 instead of piling up. Each endpoint takes a JSON body (or query parameters on
+// GET) and returns JSON. close() turns new requests away, lets queued and running ones finish
+// within the drain timeout, and then stops the listener and the workers.
+// Request bodies over maxRequestBytes get 413 without being read further.
+public class QueryService implements AutoCloseable {
+    public static final int DEFAULT_MAX_REQUEST_BYTES = 1 << 20;
+
+    public interface Handler {
+        JSONObject handle(JSONObject request) throws Exception;
+    }
+
+    private static final class RequestTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RequestTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService acceptor;
+    private final ThreadPoolExecutor workers;
+    private final int drainSeconds;
+    private final int maxRequestBytes;
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Object drainLock = new Object();
+    private int inFlight;
+    private boolean closing;
+
+    public QueryService(int port, int workerCount, int queueCapacity, int drainSeconds) throws IOException {
+        this(port, workerCount, queueCapacity, drainSeconds, DEFAULT_MAX_REQUEST_BYTES);
+    }
+
+    public QueryService(int port, int workerCount, int queueCapacity, int drainSeconds, int maxRequestBytes)
+            throws IOException {
+        this.drainSeconds = drainSeconds;
+        this.maxRequestBytes = Math.max(1, maxRequestBytes);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 128);
+        this.acceptor = Executors.newVirtualThreadPerTaskExecutor();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), new ThreadPoolExecutor.AbortPolicy());
+        server.setExecutor(acceptor);
+    }
+
+    // Without TCP_NODELAY small keep-alive responses stall on delayed ACKs (~40 ms each). The JDK's
+    // HttpServer reads the setting once, JVM-wide, so this belongs at the start of main, before
+    // any server is created; -Dsun.net.httpserver.nodelay=true on the command line does the same.
+    public static void enableTcpNoDelay() {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    // The request's k, at least 1; above maxK it is refused with 400 rather than scanning that many rows
+    public static int k(JSONObject request, int defaultK, int maxK) {
+        int k = request.optInt("k", defaultK);
+        if (k > maxK) {
+            throw new IllegalArgumentException("k must be at most " + maxK);
+        }
+        return Math.max(1, k);
+    }
+
+    public QueryService register(String path, Handler handler) {
+        server.createContext(path, exchange -> serve(exchange, handler));
+        return this;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void serve(HttpExchange exchange, Handler handler) throws IOException {
+        boolean accepted;
+        synchronized (drainLock) {
+            accepted = !closing;
+            if (accepted) {
+                inFlight++;
+            }
+        }
+        if (!accepted) {
+            respond(exchange, 503, error("Shutting down"));
+            return;
+        }
+        try {
+            process(exchange, handler);
+        } finally {
+            synchronized (drainLock) {
+                if (--inFlight == 0) {
+                    drainLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void process(HttpExchange exchange, Handler handler) throws IOException {
+        JSONObject request;
+        try {
+            request = readRequest(exchange, maxRequestBytes);
+        } catch (JSONException e) {
+            respond(exchange, 400, error("Invalid JSON: " + e.getMessage()));
+            return;
+        } catch (RequestTooLargeException e) {
+            exchange.getResponseHeaders().set("Connection", "close");
+            respond(exchange, 413, error(e.getMessage()));
+            return;
+        }
+
+        Future<JSONObject> result;
+        try {
+            result = workers.submit(() -> handler.handle(request));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 503, error("Server busy, try again"));
+            return;
+        }
+
+        try {
+            JSONObject response = result.get();
+            served.incrementAndGet();
+            respond(exchange, 200, response);
+        } catch (ExecutionException e) {
+            failed.incrementAndGet();
+            Throwable cause = e.getCause();
+            int status = cause instanceof IllegalArgumentException ? 400 : 500;
+            respond(exchange, status, error(String.valueOf(cause.getMessage())));
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, error("Shutting down"));
+        }
+    }
+
+    // POST bodies are JSON objects; GET query parameters become string fields
+    private static JSONObject readRequest(HttpExchange exchange, int maxBytes) throws IOException {
+        JSONObject request = new JSONObject();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                request.put(key, value);
+            }
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(maxBytes + 1);
+            if (bytes.length > maxBytes) {
+                throw new RequestTooLargeException("Request body over " + maxBytes + " bytes");
+            }
+            String body = new String(bytes, StandardCharsets.UTF_8);
+            if (!body.isBlank()) {
+                JSONObject json = new JSONObject(body);
+                for (String key : json.keySet()) {
+                    request.put(key, json.get(key));
+                }
+            }
+        }
+        return request;
+    }
+
+    private static JSONObject error(String message) {
+        return new JSONObject().put("error", message);
+    }
+
+    private static void respond(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public String report() {
+        return String.format("Query service: %d served, %d failed, %d rejected (queue full), %d queued now",
+                served.get(), failed.get(), rejected.get(), workers.getQueue().size());
+    }
+
+    @Override
+    public void close() {
+        // New requests get 503 from here on; queued and running ones are answered first.
+        // HttpServer.stop(delay) is not used for the wait because it sleeps out the whole
+        // delay on JDK 21 even when nothing is in flight.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+        synchronized (drainLock) {
+            closing = true;
+            try {
+                long remaining;
+                while (inFlight > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(drainLock, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        server.stop(0);
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(drainSeconds, TimeUnit.SECONDS)) {
+                System.err.println("Query service did not finish in " + drainSeconds + "s, interrupting workers");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        acceptor.shutdown();
+    }
+}
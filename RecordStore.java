@@ -0,0 +1,191 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Column-oriented, dictionary-encoded store for CSV rows, addressed by dense int row ids in
+// insertion order. Each column keeps one int code per row and a dictionary holding every
+// distinct value once as UTF-8 bytes, so repeated values (data types, dates, categories) cost
+// four bytes per row and there are no per-row or per-cell objects. Files with different
+// headers share the store; a column a file does not have is absent for its rows.
+// Rows are added while loading; seal() then drops the interning maps and trims the arrays.
+public class RecordStore {
+    private static final int ABSENT = -1;
+
+    private final List<String> columnNames = new ArrayList<>();
+    private final Map<String, Integer> columnIndex = new HashMap<>();
+    private final List<Column> columns = new ArrayList<>();
+    private int capacity = 1024;
+    private int size;
+    private boolean sealed;
+
+    // Column ids for a file's header, in header order; columns not seen before are added
+    public int[] columns(List<String> header) {
+        int[] ids = new int[header.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = columnIndex.computeIfAbsent(header.get(i), name -> {
+                columnNames.add(name);
+                columns.add(new Column(capacity));
+                return columns.size() - 1;
+            });
+        }
+        return ids;
+    }
+
+    // Adds a row whose values line up with columnIds and returns its row id; values beyond the
+    // header are dropped, missing trailing values are absent
+    public int add(int[] columnIds, String[] values) {
+        if (sealed) {
+            throw new IllegalStateException("Store is read-only");
+        }
+        if (size == capacity) {
+            capacity *= 2;
+            for (Column column : columns) {
+                column.grow(capacity);
+            }
+        }
+        for (int i = 0; i < columnIds.length && i < values.length; i++) {
+            Column column = columns.get(columnIds[i]);
+            column.codes[size] = column.intern(values[i]);
+        }
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<String> columnNames() {
+        return Collections.unmodifiableList(columnNames);
+    }
+
+    // The value, or null when the row's file had no such column
+    public String value(int row, int column) {
+        Column c = columns.get(column);
+        int code = c.codes[checkRow(row)];
+        return code == ABSENT ? null : c.decode(code);
+    }
+
+    // Column name to value for the columns the row has, in column order
+    public Map<String, String> toMap(int row) {
+        checkRow(row);
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int c = 0; c < columns.size(); c++) {
+            Column column = columns.get(c);
+            if (column.codes[row] != ABSENT) {
+                map.put(columnNames.get(c), column.decode(column.codes[row]));
+            }
+        }
+        return map;
+    }
+
+    // The row's values joined with ", ", the text that is embedded and lexically indexed
+    public String text(int row) {
+        checkRow(row);
+        StringBuilder text = new StringBuilder();
+        for (Column column : columns) {
+            int code = column.codes[row];
+            if (code != ABSENT) {
+                if (text.length() > 0) {
+                    text.append(", ");
+                }
+                text.append(column.decode(code));
+            }
+        }
+        return text.toString();
+    }
+
+    public void seal() {
+        sealed = true;
+        capacity = Math.max(1, size);
+        for (Column column : columns) {
+            column.seal(capacity);
+        }
+    }
+
+    public int distinctValues() {
+        int distinct = 0;
+        for (Column column : columns) {
+            distinct += column.distinct;
+        }
+        return distinct;
+    }
+
+    // Heap held by the codes and dictionaries, excluding the interning maps dropped by seal()
+    public long heapBytes() {
+        long bytes = 0;
+        for (Column column : columns) {
+            bytes += (long) column.codes.length * Integer.BYTES + column.bytes.length
+                    + (long) column.offsets.length * Integer.BYTES;
+        }
+        return bytes;
+    }
+
+    public String report() {
+        return String.format("%d records, %d columns, %d distinct values, %.1f MB", size, columns.size(),
+                distinctValues(), heapBytes() / 1e6);
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return row;
+    }
+
+    private static final class Column {
+        int[] codes;
+        // Value i is bytes[offsets[i] .. offsets[i + 1])
+        byte[] bytes = new byte[4096];
+        int[] offsets = new int[65];
+        int distinct;
+        Map<String, Integer> intern = new HashMap<>();
+
+        Column(int capacity) {
+            codes = new int[capacity];
+            Arrays.fill(codes, ABSENT);
+        }
+
+        void grow(int capacity) {
+            int old = codes.length;
+            codes = Arrays.copyOf(codes, capacity);
+            Arrays.fill(codes, old, capacity, ABSENT);
+        }
+
+        int intern(String value) {
+            Integer code = intern.get(value);
+            if (code != null) {
+                return code;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            int end = offsets[distinct];
+            if (end + encoded.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, end + encoded.length));
+            }
+            if (distinct + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            System.arraycopy(encoded, 0, bytes, end, encoded.length);
+            offsets[distinct + 1] = end + encoded.length;
+            intern.put(value, distinct);
+            return distinct++;
+        }
+
+        String decode(int code) {
+            return new String(bytes, offsets[code], offsets[code + 1] - offsets[code], StandardCharsets.UTF_8);
+        }
+
+        void seal(int rows) {
+            intern = null;
+            codes = Arrays.copyOf(codes, rows);
+            bytes = Arrays.copyOf(bytes, offsets[distinct]);
+            offsets = Arrays.copyOf(offsets, distinct + 1);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.example;
+
+// Similarity kernels shared by the brute-force scans. Uses the jdk.incubator.vector
+// implementation when the module is available (run with --add-modules jdk.incubator.vector)
+// and a scalar loop otherwise; -Dkernels.scalar=true forces the scalar path.
+// Norms are passed in so callers compute the query norm once and cache stored norms.
+public final class SimilarityKernels {
+    private static final boolean VECTORIZED = !Boolean.getBoolean("kernels.scalar")
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private SimilarityKernels() {
+    }
+
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return VECTORIZED ? VectorApiKernels.dot(a, b) : scalarDot(a, b);
+    }
+
+    // For vectors that were normalized up front, cosine similarity is just the dot product
+    public static float dotNormalized(float[] a, float[] b) {
+        return dot(a, b);
+    }
+
+    public static float cosine(float[] a, float aNorm, float[] b, float bNorm) {
+        if (aNorm == 0f || bNorm == 0f) {
+            return 0f;
+        }
+        return dot(a, b) / (aNorm * bNorm);
+    }
+
+    public static float l2Squared(float[] a, float[] b) {
+        return VECTORIZED ? VectorApiKernels.l2Squared(a, b) : scalarL2Squared(a, b);
+    }
+
+    public static float norm(float[] a) {
+        return (float) Math.sqrt(dot(a, a));
+    }
+
+    static float scalarDot(float[] a, float[] b) {
+        int length = Math.min(a.length, b.length);
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    static float scalarL2Squared(float[] a, float[] b) {
+        int length = Math.min(a.length, b.length);
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            float diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,32 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// One timed pipeline stage in a JFR recording, e.g.
+//   java -XX:StartFlightRecording=filename=run.jfr ... && jfr print --events org.example.Stage run.jfr
+@Name("org.example.Stage")
+@Label("Pipeline Stage")
+@Category("Food RAG")
+@Description("Latency of one ingestion or query stage")
+@StackTrace(false)
+class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Items")
+    @Description("Rows, texts or tokens handled by this stage")
+    long items;
+
+    @Label("Failed")
+    boolean failed;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+}
@@ -0,0 +1,215 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Local stand-in for the Ollama embedding and generation endpoints. Vectors are derived from
+// the text's hash, so the same text always gets the same vector, and client throughput can be
+// measured without a model. Every request waits latencyMillis before answering, and a fraction
+// errorRate of them fail with HTTP 500, to see how callers behave against a slow or flaky
+// model. Run with "bench" to compare batch sizes against it:
+//   java -Dstub.latencyMillis=0 -Dstub.errorRate=0 org.example.StubOllamaServer [port] [dimension] [bench]
+public class StubOllamaServer implements AutoCloseable {
+    private static final int GENERATED_TOKENS = 32;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int dimension;
+    private final long latencyMillis;
+    private final double errorRate;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    public StubOllamaServer(int port, int dimension) throws IOException {
+        this(port, dimension, 0, 0.0);
+    }
+
+    public StubOllamaServer(int port, int dimension, long latencyMillis, double errorRate) throws IOException {
+        this.dimension = dimension;
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 128);
+        // Simulated latency is a sleep, so a virtual thread per request keeps it from capping concurrency
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/embed", exchange -> handle(exchange, this::handleEmbed));
+        server.createContext("/api/embeddings", exchange -> handle(exchange, this::handleEmbeddings));
+        server.createContext("/api/generate", exchange -> handle(exchange, this::handleGenerate));
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    public String report() {
+        return String.format("Stub Ollama: %d requests, %d injected errors (latency %d ms, error rate %.1f%%)",
+                requests.get(), injectedErrors.get(), latencyMillis, errorRate * 100);
+    }
+
+    private interface Endpoint {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        requests.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+                return;
+            }
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            injectedErrors.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            respond(exchange, 500, new JSONObject().put("error", "injected failure").toString());
+            return;
+        }
+        endpoint.handle(exchange);
+    }
+
+    // /api/embed: "input" is a string or an array of strings
+    private void handleEmbed(HttpExchange exchange) throws IOException {
+        JSONObject request = readJson(exchange);
+        List<String> inputs = new ArrayList<>();
+        Object input = request.opt("input");
+        if (input instanceof JSONArray) {
+            JSONArray array = (JSONArray) input;
+            for (int i = 0; i < array.length(); i++) {
+                inputs.add(array.getString(i));
+            }
+        } else if (input != null) {
+            inputs.add(input.toString());
+        }
+
+        JSONArray embeddings = new JSONArray();
+        for (String text : inputs) {
+            embeddings.put(new JSONArray(vectorFor(text)));
+        }
+        JSONObject response = new JSONObject();
+        response.put("model", request.optString("model"));
+        response.put("embeddings", embeddings);
+        respond(exchange, 200, response.toString());
+    }
+
+    // Legacy /api/embeddings: one "prompt" per request
+    private void handleEmbeddings(HttpExchange exchange) throws IOException {
+        JSONObject request = readJson(exchange);
+        JSONObject response = new JSONObject();
+        response.put("embedding", new JSONArray(vectorFor(request.optString("prompt", request.optString("input")))));
+        respond(exchange, 200, response.toString());
+    }
+
+    // /api/generate: streams GENERATED_TOKENS NDJSON chunks, or one object with "stream": false
+    private void handleGenerate(HttpExchange exchange) throws IOException {
+        JSONObject request = readJson(exchange);
+        String model = request.optString("model");
+        Random random = new Random(request.optString("prompt").hashCode());
+        if (!request.optBoolean("stream", true)) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < GENERATED_TOKENS; i++) {
+                text.append("token").append(random.nextInt(1000)).append(' ');
+            }
+            JSONObject response = new JSONObject().put("model", model).put("response", text.toString()).put("done", true);
+            respond(exchange, 200, response.toString());
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < GENERATED_TOKENS; i++) {
+                JSONObject chunk = new JSONObject().put("model", model)
+                        .put("response", "token" + random.nextInt(1000) + " ").put("done", false);
+                out.write((chunk.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            JSONObject last = new JSONObject().put("model", model).put("response", "")
+                    .put("done", true).put("eval_count", GENERATED_TOKENS);
+            out.write((last.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private float[] vectorFor(String text) {
+        Random random = new Random(text.hashCode());
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static JSONObject readJson(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new JSONObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 11435;
+        int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 768;
+        boolean bench = args.length > 2 && args[2].equals("bench");
+        QueryService.enableTcpNoDelay();
+
+        StubOllamaServer stub = new StubOllamaServer(port, dimension,
+                Long.getLong("stub.latencyMillis", 0), Double.parseDouble(System.getProperty("stub.errorRate", "0")));
+        System.out.println("Stub Ollama listening on " + stub.getBaseUrl() + " (dimension " + dimension + ")");
+        if (!bench) {
+            return;
+        }
+
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            texts.add("row " + i + ",synthetic food item " + (i * 31) + ",100.0,g");
+        }
+        try {
+            for (int batchSize : new int[] {1, 8, 32, 64, 128}) {
+                OllamaEmbeddingClient client = new OllamaEmbeddingClient(stub.getBaseUrl(), "stub", batchSize);
+                client.embed(texts.subList(0, 256));
+                long start = System.nanoTime();
+                client.embed(texts);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("batchSize=%-4d %8.1f texts/sec%n", batchSize, texts.size() / seconds);
+            }
+        } finally {
+            stub.close();
+        }
+    }
+}
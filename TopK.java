@@ -0,0 +1,188 @@
+package org.example;
+
+import java.util.Arrays;
+
+// Bounded top-K selector over primitive (int id, float score) pairs. Keeps the K highest
+// scores in a min-heap, so memory stays O(K) and nothing is boxed however many rows are
+// offered. Callers ranking by distance should offer the negated distance. Equal scores are
+// broken by the lower id, so the retained set does not depend on the order of offers and
+// merged per-shard selectors match a single sequential pass.
+public final class TopK {
+    private final int capacity;
+    private int[] ids;
+    private float[] scores;
+    private int size;
+
+    public TopK(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        int initial = Math.min(capacity, 64);
+        this.ids = new int[initial];
+        this.scores = new float[initial];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    // Lowest retained score; once the selector is full, offers ranked below it are rejected
+    public float minScore() {
+        return scores[0];
+    }
+
+    public boolean offer(int id, float score) {
+        if (size == capacity) {
+            if (!worse(scores[0], ids[0], score, id)) {
+                return false;
+            }
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+            return true;
+        }
+        if (size == ids.length) {
+            int grown = (int) Math.min(capacity, (long) size * 2);
+            ids = Arrays.copyOf(ids, grown);
+            scores = Arrays.copyOf(scores, grown);
+        }
+        ids[size] = id;
+        scores[size] = score;
+        siftUp(size++);
+        return true;
+    }
+
+    // Removes and returns the id with the lowest retained score
+    public int pollMin() {
+        int id = ids[0];
+        size--;
+        ids[0] = ids[size];
+        scores[0] = scores[size];
+        siftDown(0);
+        return id;
+    }
+
+    public int bestId() {
+        int best = 0;
+        for (int i = 1; i < size; i++) {
+            if (worse(best, i)) {
+                best = i;
+            }
+        }
+        return ids[best];
+    }
+
+    public void addAll(TopK other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.ids[i], other.scores[i]);
+        }
+    }
+
+    public int[] ids() {
+        int[] order = sortedSlots();
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = ids[order[i]];
+        }
+        return result;
+    }
+
+    public float[] scores() {
+        int[] order = sortedSlots();
+        float[] result = new float[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = scores[order[i]];
+        }
+        return result;
+    }
+
+    // Heap slots ordered best score first, produced by draining a copy of the heap
+    private int[] sortedSlots() {
+        int[] heap = new int[size];
+        for (int i = 0; i < size; i++) {
+            heap[i] = i;
+        }
+        int[] order = new int[size];
+        int remaining = size;
+        while (remaining > 0) {
+            order[remaining - 1] = heap[0];
+            heap[0] = heap[--remaining];
+            int i = 0;
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= remaining) {
+                    break;
+                }
+                int smallest = left;
+                if (left + 1 < remaining && worse(heap[left + 1], heap[left])) {
+                    smallest = left + 1;
+                }
+                if (!worse(heap[smallest], heap[i])) {
+                    break;
+                }
+                int tmp = heap[i];
+                heap[i] = heap[smallest];
+                heap[smallest] = tmp;
+                i = smallest;
+            }
+        }
+        return order;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && worse(right, left)) {
+                smallest = right;
+            }
+            if (!worse(smallest, i)) {
+                break;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private boolean worse(int slotA, int slotB) {
+        return worse(scores[slotA], ids[slotA], scores[slotB], ids[slotB]);
+    }
+
+    // Ranking order: higher score first, then lower id
+    private static boolean worse(float scoreA, int idA, float scoreB, int idB) {
+        return scoreA < scoreB || (scoreA == scoreB && idA > idB);
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
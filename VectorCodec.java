@@ -0,0 +1,44 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Packs embeddings as little-endian float32 so they can be stored as SQLite BLOBs
+// and scored straight from the bytes without going through JSON.
+public final class VectorCodec {
+    public static final int BYTES_PER_FLOAT = Float.BYTES;
+
+    private VectorCodec() {
+    }
+
+    public static byte[] encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * BYTES_PER_FLOAT).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    public static float[] decode(byte[] bytes) {
+        float[] vector = new float[bytes.length / BYTES_PER_FLOAT];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    public static int dimension(byte[] bytes) {
+        return bytes.length / BYTES_PER_FLOAT;
+    }
+
+    public static float norm(float[] vector) {
+        double sum = 0.0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    // Bulk-decodes a packed vector into a caller-owned scratch array, so a scan reuses one
+    // float[] for every row and can hand it straight to the similarity kernels
+    public static void decodeInto(byte[] packed, float[] dst) {
+        ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer()
+                .get(dst, 0, Math.min(dst.length, packed.length / BYTES_PER_FLOAT));
+    }
+}
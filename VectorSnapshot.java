@@ -0,0 +1,296 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+// Versioned, memory-mapped vector file so embeddings survive restarts. Layout (little-endian):
+//   header   64 bytes: magic "VECSNAP\0", version, dimension, count, reserved,
+//            32-byte fingerprint of the model and source files
+//   row ids  count ints, the caller's id for each row
+//   norms    count float32, each row's L2 norm, so searches do not recompute it per query
+//   scales   count float32, each row's int8 quantization scale (see QuantizedVectorStore)
+//   vectors  count * dimension float32, starting on a 64-byte boundary
+//   codes    count * dimension int8, the normalized vectors quantized, on a 64-byte boundary
+// The file is opened with FileChannel.map, so pages are only read when a row is touched;
+// the quantized store maps the codes too instead of building them at startup.
+// A snapshot whose fingerprint does not match the current model and CSVs is rejected, and
+// the caller rebuilds it. One from an older format version with a matching fingerprint is
+// rewritten in the current format from its own vectors, without embedding anything again.
+public class VectorSnapshot implements VectorSource {
+    private static final byte[] MAGIC = "VECSNAP\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 3;
+    // Part of the fingerprint; only changes when the vectors themselves would, not the layout
+    private static final int FINGERPRINT_VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int FINGERPRINT_OFFSET = 32;
+    private static final int FINGERPRINT_BYTES = 32;
+
+    private final int dimension;
+    private final int count;
+    private final IntBuffer rowIds;
+    private final FloatBuffer norms;
+    private final FloatBuffer scales;
+    private final FloatBuffer vectors;
+    private final ByteBuffer codes;
+
+    private VectorSnapshot(MappedByteBuffer mapped, int dimension, int count) {
+        this.dimension = dimension;
+        this.count = count;
+        this.rowIds = mapped.slice(HEADER_BYTES, count * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        this.norms = mapped.slice(normOffset(count), count * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        this.scales = mapped.slice(scaleOffset(count), count * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        int vectorOffset = vectorOffset(VERSION, count);
+        this.vectors = mapped.slice(vectorOffset, count * dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        this.codes = mapped.slice((int) codeOffset(count, dimension), count * dimension);
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    public int rowId(int row) {
+        return rowIds.get(row);
+    }
+
+    @Override
+    public void read(int row, float[] dst) {
+        vectors.get(row * dimension, dst, 0, dimension);
+    }
+
+    @Override
+    public float norm(int row) {
+        return norms.get(row);
+    }
+
+    // Row-major int8 codes, dimension bytes per row; read-only views of the mapping
+    public ByteBuffer codes() {
+        return codes.asReadOnlyBuffer();
+    }
+
+    public FloatBuffer scales() {
+        return scales.asReadOnlyBuffer();
+    }
+
+    // Fingerprint of everything the vectors depend on: the model and each source file's
+    // path, size and modification time
+    public static byte[] fingerprint(String model, Path... sources) throws IOException {
+        MessageDigest digest = ContentHashes.sha256();
+        digest.update(("v" + FINGERPRINT_VERSION + "\0" + model + "\0").getBytes(StandardCharsets.UTF_8));
+        for (Path source : sources) {
+            Path absolute = source.toAbsolutePath();
+            String entry = absolute + "\0" + Files.size(absolute) + "\0" + Files.getLastModifiedTime(absolute).toMillis() + "\0";
+            digest.update(entry.getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    // Returns null when the file is missing, truncated, from another format version or was
+    // built from different inputs
+    public static VectorSnapshot openIfValid(Path path, byte[] fingerprint) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) < HEADER_BYTES) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot larger than 2 GB is not supported: " + path);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] magic = new byte[MAGIC.length];
+            mapped.get(0, magic);
+            byte[] storedFingerprint = new byte[FINGERPRINT_BYTES];
+            mapped.get(FINGERPRINT_OFFSET, storedFingerprint);
+            int version = mapped.getInt(8);
+            int dimension = mapped.getInt(12);
+            int count = mapped.getInt(16);
+            if (!Arrays.equals(magic, MAGIC) || version < 1 || version > VERSION || dimension <= 0 || count < 0
+                    || !Arrays.equals(storedFingerprint, fingerprint)
+                    || fileSize != fileSize(version, count, dimension)) {
+                return null;
+            }
+            if (version < VERSION) {
+                if (!fits(count, dimension)) {
+                    return null;
+                }
+                int[] rowIds = new int[count];
+                mapped.slice(HEADER_BYTES, count * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(rowIds);
+                System.out.println("Upgrading vector snapshot " + path + " from format " + version + " to " + VERSION);
+                write(path, fingerprint, dimension, rowIds, path, vectorOffset(version, count));
+                return openIfValid(path, fingerprint);
+            }
+            // The mapping stays valid after the channel is closed
+            return new VectorSnapshot(mapped, dimension, count);
+        }
+    }
+
+    // Whether a snapshot of count rows fits in the single mapping openIfValid makes (2 GB).
+    // The first bound keeps the int section offsets from overflowing before the size is checked
+    public static boolean fits(int count, int dimension) {
+        return count >= 0 && count <= Integer.MAX_VALUE / (3L * Integer.BYTES + (Float.BYTES + 1L) * dimension)
+                && fileSize(VERSION, count, dimension) <= Integer.MAX_VALUE;
+    }
+
+    // Writes a snapshot from row ids plus a file of packed float32 vectors in the same order
+    // (as produced by FloatVectorFile). The file is written beside the target and moved into
+    // place, so a crash never leaves a half-written snapshot behind.
+    public static void write(Path path, byte[] fingerprint, int dimension, int[] rowIds, Path vectorFile) throws IOException {
+        write(path, fingerprint, dimension, rowIds, vectorFile, 0);
+    }
+
+    // Same, with the vectors starting at vectorStart in vectorFile, which may be an older
+    // snapshot at path itself: the new file only replaces it once complete
+    private static void write(Path path, byte[] fingerprint, int dimension, int[] rowIds, Path vectorFile,
+                              long vectorStart) throws IOException {
+        if (!fits(rowIds.length, dimension)) {
+            throw new IOException("Snapshot of " + rowIds.length + " rows of " + dimension + " dimensions would take "
+                    + fileSize(VERSION, rowIds.length, dimension) + " bytes, over the 2 GB limit");
+        }
+        long vectorBytes = (long) rowIds.length * dimension * Float.BYTES;
+        if (Files.size(vectorFile) < vectorStart + vectorBytes) {
+            throw new IOException("Vector file is shorter than " + rowIds.length + " rows");
+        }
+
+        Path absolute = path.toAbsolutePath();
+        Path tmp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel in = FileChannel.open(vectorFile, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(vectorOffset(VERSION, rowIds.length)).order(ByteOrder.LITTLE_ENDIAN);
+            head.put(MAGIC);
+            head.putInt(VERSION);
+            head.putInt(dimension);
+            head.putInt(rowIds.length);
+            head.position(FINGERPRINT_OFFSET);
+            head.put(fingerprint, 0, FINGERPRINT_BYTES);
+            head.position(HEADER_BYTES);
+            for (int rowId : rowIds) {
+                head.putInt(rowId);
+            }
+            int count = rowIds.length;
+            float[] norms = new float[count];
+            float[] scales = new float[count];
+            byte[] scratch = new byte[dimension];
+            forEachRow(in, vectorStart, dimension, count, (row, vector) -> {
+                norms[row] = VectorCodec.norm(vector);
+                scales[row] = norms[row] == 0f ? 0f : QuantizedVectorStore.quantize(vector, norms[row], scratch, 0);
+            });
+            head.position(normOffset(count));
+            for (float norm : norms) {
+                head.putFloat(norm);
+            }
+            for (float scale : scales) {
+                head.putFloat(scale);
+            }
+            head.clear();
+            while (head.hasRemaining()) {
+                out.write(head);
+            }
+
+            long copied = 0;
+            while (copied < vectorBytes) {
+                copied += in.transferTo(vectorStart + copied, vectorBytes - copied, out);
+            }
+
+            // Codes are written in blocks as a second pass quantizes the rows
+            ByteBuffer block = ByteBuffer.allocate(Math.max(dimension, (1 << 20) / dimension * dimension));
+            long position = codeOffset(count, dimension);
+            long[] written = {position};
+            forEachRow(in, vectorStart, dimension, count, (row, vector) -> {
+                if (norms[row] == 0f) {
+                    Arrays.fill(scratch, (byte) 0);
+                } else {
+                    QuantizedVectorStore.quantize(vector, norms[row], scratch, 0);
+                }
+                block.put(scratch);
+                if (!block.hasRemaining() || row == count - 1) {
+                    block.flip();
+                    while (block.hasRemaining()) {
+                        written[0] += out.write(block, written[0]);
+                    }
+                    block.clear();
+                }
+            });
+            if (written[0] != fileSize(VERSION, count, dimension)) {
+                throw new IOException("Wrote " + written[0] + " bytes, expected " + fileSize(VERSION, count, dimension));
+            }
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private interface RowVisitor {
+        void visit(int row, float[] vector) throws IOException;
+    }
+
+    // One sequential pass over the vectors
+    private static void forEachRow(FileChannel in, long vectorStart, int dimension, int count, RowVisitor visitor)
+            throws IOException {
+        float[] vector = new float[dimension];
+        int rowBytes = dimension * Float.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(rowBytes, (1 << 20) / rowBytes * rowBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        long position = vectorStart;
+        int row = 0;
+        while (row < count) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), (long) (count - row) * rowBytes));
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of vector file at row " + row);
+                }
+            }
+            position += buffer.limit();
+            buffer.flip();
+            FloatBuffer floats = buffer.asFloatBuffer();
+            for (int i = 0; i < floats.limit() / dimension; i++, row++) {
+                floats.get(i * dimension, vector);
+                visitor.visit(row, vector);
+            }
+        }
+    }
+
+    private static int normOffset(int count) {
+        return HEADER_BYTES + count * Integer.BYTES;
+    }
+
+    private static int scaleOffset(int count) {
+        return normOffset(count) + count * Float.BYTES;
+    }
+
+    // Format 1 had no norms, format 2 no scales or codes
+    private static int vectorOffset(int version, int count) {
+        int end = version == 1 ? normOffset(count) : version == 2 ? scaleOffset(count) : scaleOffset(count) + count * Float.BYTES;
+        return (end + 63) & ~63;
+    }
+
+    private static long codeOffset(int count, int dimension) {
+        long end = vectorOffset(VERSION, count) + (long) count * dimension * Float.BYTES;
+        return (end + 63) & ~63L;
+    }
+
+    private static long fileSize(int version, int count, int dimension) {
+        return version < 3 ? vectorOffset(version, count) + (long) count * dimension * Float.BYTES
+                : codeOffset(count, dimension) + (long) count * dimension;
+    }
+}
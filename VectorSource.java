@@ -0,0 +1,13 @@
+package org.example;
+
+// Random-access source of full-precision vectors, addressed by dense row number
+public interface VectorSource {
+    int dimension();
+
+    int size();
+
+    void read(int row, float[] dst);
+
+    // L2 norm of the row's vector, kept alongside it so scans need not recompute it per query
+    float norm(int row);
+}
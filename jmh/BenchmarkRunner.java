@@ -0,0 +1,31 @@
+package org.example.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the suite and writes JMH's JSON results, one file per commit to compare with
+// CompareResults:
+//   java org.example.bench.BenchmarkRunner [include-regex] [result.json] [param=v1,v2 ...]
+// e.g. BenchmarkRunner "TopK|VectorCodec" jmh-abc123.json corpusSize=10000,100000
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*";
+        String resultFile = args.length > 1 ? args[1] : "jmh-result.json";
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(BenchmarkRunner.class.getPackageName() + ".*(" + include + ").*")
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile);
+        for (int i = 2; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq > 0) {
+                options.param(args[i].substring(0, eq), args[i].substring(eq + 1).split(","));
+            }
+        }
+        new Runner(options.build()).run();
+        System.out.println("Results written to " + resultFile);
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.bench;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Side-by-side view of two BenchmarkRunner result files, e.g. from two commits:
+//   java org.example.bench.CompareResults jmh-before.json jmh-after.json
+// Ratios are after/before; every benchmark here reports time per operation, so below 1.0 is
+// faster. Differences within the combined error bars are marked with "~".
+public class CompareResults {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <before.json> <after.json>");
+            return;
+        }
+        Map<String, JSONObject> before = load(Path.of(args[0]));
+        Map<String, JSONObject> after = load(Path.of(args[1]));
+
+        System.out.printf("%-90s %14s %14s %8s%n", "benchmark", "before", "after", "ratio");
+        for (Map.Entry<String, JSONObject> entry : after.entrySet()) {
+            JSONObject now = entry.getValue().getJSONObject("primaryMetric");
+            String unit = now.getString("scoreUnit");
+            JSONObject old = before.containsKey(entry.getKey()) ? before.get(entry.getKey()).getJSONObject("primaryMetric") : null;
+            if (old == null) {
+                System.out.printf("%-90s %14s %14.3f %8s  %s%n", entry.getKey(), "-", now.getDouble("score"), "new", unit);
+                continue;
+            }
+            double ratio = now.getDouble("score") / old.getDouble("score");
+            double noise = error(now) + error(old);
+            boolean significant = Math.abs(now.getDouble("score") - old.getDouble("score")) > noise;
+            System.out.printf("%-90s %14.3f %14.3f %7.2f%s  %s%n", entry.getKey(), old.getDouble("score"),
+                    now.getDouble("score"), ratio, significant ? " " : "~", unit);
+        }
+    }
+
+    // Benchmark name plus its parameters, so each parameter combination is its own row
+    private static Map<String, JSONObject> load(Path file) throws IOException {
+        JSONArray results = new JSONArray(Files.readString(file));
+        Map<String, JSONObject> byKey = new LinkedHashMap<>();
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            StringBuilder key = new StringBuilder(result.getString("benchmark").replace("org.example.bench.", ""));
+            JSONObject params = result.optJSONObject("params");
+            if (params != null) {
+                for (Map.Entry<String, Object> param : new TreeMap<>(params.toMap()).entrySet()) {
+                    key.append(' ').append(param.getKey()).append('=').append(param.getValue());
+                }
+            }
+            byKey.put(key.toString(), result);
+        }
+        return byKey;
+    }
+
+    private static double error(JSONObject metric) {
+        double error = metric.optDouble("scoreError", 0.0);
+        return Double.isNaN(error) ? 0.0 : error;
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.bench;
+
+import org.example.ParallelExactSearch;
+import org.example.QuantizedVectorStore;
+import org.example.TopK;
+import org.example.VectorSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// One top-50 query against corpusSize 768-dim vectors: the sharded exact scan (parallelism 0
+// means one worker per core) and the int8 quantized scan with re-ranking. The 1M corpus is
+// about 3 GB of float32, hence the larger heap.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Xmx6g"})
+public class ExactScanBenchmark {
+    private static final int K = 50;
+    private static final int RERANK_FACTOR = 4;
+
+    @Param({"10000", "100000", "1000000"})
+    public int corpusSize;
+
+    @Param({"1", "0"})
+    public int parallelism;
+
+    private VectorSource source;
+    private float[] query;
+    private ParallelExactSearch exactSearch;
+    private QuantizedVectorStore quantized;
+
+    @Setup
+    public void setUp() {
+        source = SyntheticVectors.source(SyntheticVectors.gaussian(corpusSize, SyntheticVectors.DIMENSION, 4L));
+        query = SyntheticVectors.gaussian(SyntheticVectors.DIMENSION, 5L);
+        exactSearch = new ParallelExactSearch(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        quantized = new QuantizedVectorStore(source);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        exactSearch.close();
+        quantized.close();
+    }
+
+    @Benchmark
+    public TopK exact() {
+        return exactSearch.search(source, query, K);
+    }
+
+    // Single-threaded regardless of the parallelism parameter
+    @Benchmark
+    public TopK quantized() {
+        return quantized.search(query, K, RERANK_FACTOR);
+    }
+}
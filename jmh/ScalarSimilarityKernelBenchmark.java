@@ -0,0 +1,8 @@
+package org.example.bench;
+
+import org.openjdk.jmh.annotations.Fork;
+
+// The same kernels with the Vector API switched off, to track the scalar fallback
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Dkernels.scalar=true"})
+public class ScalarSimilarityKernelBenchmark extends SimilarityKernelBenchmark {
+}
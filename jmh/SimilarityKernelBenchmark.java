@@ -0,0 +1,67 @@
+package org.example.bench;
+
+import org.example.SimilarityKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Single 768-dim comparisons. legacyCosine is the original vactorFood.cosineSimilarity, copied
+// as it was: it recomputed both norms with Math.pow in double arithmetic on every call, and it
+// stays as the baseline.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SimilarityKernelBenchmark {
+    private float[] a;
+    private float[] b;
+    private float aNorm;
+    private float bNorm;
+
+    @Setup
+    public void setUp() {
+        a = SyntheticVectors.gaussian(SyntheticVectors.DIMENSION, 1L);
+        b = SyntheticVectors.gaussian(SyntheticVectors.DIMENSION, 2L);
+        aNorm = SimilarityKernels.norm(a);
+        bNorm = SimilarityKernels.norm(b);
+    }
+
+    @Benchmark
+    public float dot() {
+        return SimilarityKernels.dot(a, b);
+    }
+
+    @Benchmark
+    public float cosine() {
+        return SimilarityKernels.cosine(a, aNorm, b, bNorm);
+    }
+
+    @Benchmark
+    public float l2Squared() {
+        return SimilarityKernels.l2Squared(a, b);
+    }
+
+    @Benchmark
+    public double legacyCosine() {
+        double dotProduct = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            dotProduct += a[i] * b[i];
+            normA += Math.pow(a[i], 2);
+            normB += Math.pow(b[i], 2);
+        }
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+}
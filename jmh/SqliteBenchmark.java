@@ -0,0 +1,144 @@
+package org.example.bench;
+
+import org.example.EmbeddingWriter;
+import org.example.VectorCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+// SQLite write and read paths on a temporary database with the production schema. insert is
+// the per-row cost through EmbeddingWriter (batched, flushed whenever 500 rows are pending,
+// as the ingestion pipeline does); scan reads and decodes every stored vector, as the exact
+// search does, after the corpus is loaded in commits of 5000 rows. The 1M corpus is left out here:
+// populating it takes minutes per fork and the per-row costs are flat by 100k.
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqliteBenchmark {
+    private static final int INSERT_BATCH = 1000;
+    private static final String SCHEMA = "CREATE TABLE IF NOT EXISTS embeddings (id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "text TEXT, content_hash TEXT, vector BLOB, dim INTEGER, norm REAL)";
+    private static final String HASH_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS idx_embeddings_content_hash ON embeddings (content_hash)";
+
+    @State(Scope.Thread)
+    public static class InsertState {
+        Path dbFile;
+        Connection conn;
+        EmbeddingWriter writer;
+        float[][] vectors;
+        long nextRow;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws Exception {
+            dbFile = Files.createTempFile("bench-insert", ".db");
+            conn = open(dbFile);
+            writer = new EmbeddingWriter(conn, 500, "NORMAL", (id, vector) -> { });
+            vectors = SyntheticVectors.gaussian(INSERT_BATCH, SyntheticVectors.DIMENSION, 7L);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws Exception {
+            writer.close();
+            conn.close();
+            deleteDatabase(dbFile);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ScanState {
+        @Param({"10000", "100000"})
+        public int corpusSize;
+
+        Path dbFile;
+        Connection conn;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            dbFile = Files.createTempFile("bench-scan", ".db");
+            conn = open(dbFile);
+            float[][] vectors = SyntheticVectors.gaussian(INSERT_BATCH, SyntheticVectors.DIMENSION, 8L);
+            try (EmbeddingWriter writer = new EmbeddingWriter(conn, 5000, "OFF", (id, vector) -> { })) {
+                for (int row = 0; row < corpusSize; row++) {
+                    writer.write("row " + row, "hash-" + row, vectors[row % vectors.length]);
+                    if (writer.isBatchFull()) {
+                        writer.flush();
+                    }
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            conn.close();
+            deleteDatabase(dbFile);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSERT_BATCH)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long insert(InsertState state) throws SQLException {
+        for (float[] vector : state.vectors) {
+            long row = state.nextRow++;
+            state.writer.write("row " + row, "hash-" + row, vector);
+            if (state.writer.isBatchFull()) {
+                state.writer.flush();
+            }
+        }
+        return state.writer.getRowsWritten();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public double scan(ScanState state) throws SQLException {
+        float[] vector = new float[SyntheticVectors.DIMENSION];
+        double checksum = 0.0;
+        try (PreparedStatement stmt = state.conn.prepareStatement("SELECT id, vector, norm FROM embeddings WHERE dim = ?")) {
+            stmt.setInt(1, SyntheticVectors.DIMENSION);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    VectorCodec.decodeInto(rs.getBytes("vector"), vector);
+                    checksum += vector[0] * rs.getFloat("norm");
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private static Connection open(Path dbFile) throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(SCHEMA);
+            stmt.execute(HASH_INDEX);
+        }
+        return conn;
+    }
+
+    private static void deleteDatabase(Path dbFile) throws Exception {
+        Files.deleteIfExists(dbFile);
+        Files.deleteIfExists(Path.of(dbFile + "-wal"));
+        Files.deleteIfExists(Path.of(dbFile + "-shm"));
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.bench;
+
+import org.example.SimilarityKernels;
+import org.example.VectorSource;
+
+import java.util.Random;
+
+// Deterministic gaussian vectors shared by the benchmarks, so every run and every commit
+// measures the same data
+final class SyntheticVectors {
+    static final int DIMENSION = 768;
+
+    private SyntheticVectors() {
+    }
+
+    static float[][] gaussian(int count, int dimension, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][dimension];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    static float[] gaussian(int dimension, long seed) {
+        return gaussian(1, dimension, seed)[0];
+    }
+
+    static VectorSource source(float[][] vectors) {
+        float[] norms = new float[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            norms[i] = SimilarityKernels.norm(vectors[i]);
+        }
+        return new VectorSource() {
+            @Override
+            public int dimension() {
+                return vectors[0].length;
+            }
+
+            @Override
+            public int size() {
+                return vectors.length;
+            }
+
+            @Override
+            public void read(int row, float[] dst) {
+                System.arraycopy(vectors[row], 0, dst, 0, dst.length);
+            }
+
+            @Override
+            public float norm(int row) {
+                return norms[row];
+            }
+        };
+    }
+}
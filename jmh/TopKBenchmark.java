@@ -0,0 +1,67 @@
+package org.example.bench;
+
+import org.example.TopK;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Selecting the best 50 of corpusSize precomputed scores. boxedHeap is the PriorityQueue of
+// Map.Entry the scans used before TopK.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopKBenchmark {
+    private static final int K = 50;
+
+    @Param({"10000", "100000", "1000000"})
+    public int corpusSize;
+
+    private float[] scores;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(3L);
+        scores = new float[corpusSize];
+        for (int i = 0; i < corpusSize; i++) {
+            scores[i] = random.nextFloat();
+        }
+    }
+
+    @Benchmark
+    public int[] topK() {
+        TopK best = new TopK(K);
+        for (int i = 0; i < scores.length; i++) {
+            best.offer(i, scores[i]);
+        }
+        return best.ids();
+    }
+
+    @Benchmark
+    public Object boxedHeap() {
+        PriorityQueue<Map.Entry<Integer, Double>> best = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (int i = 0; i < scores.length; i++) {
+            best.offer(new AbstractMap.SimpleEntry<>(i, (double) scores[i]));
+            if (best.size() > K) {
+                best.poll();
+            }
+        }
+        return best;
+    }
+}
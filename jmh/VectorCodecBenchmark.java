@@ -0,0 +1,70 @@
+package org.example.bench;
+
+import org.example.VectorCodec;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Serializing one 768-dim vector: the float32 BLOB codec against the JSON text the embeddings
+// table used to hold (and that Ollama still sends)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorCodecBenchmark {
+    private float[] vector;
+    private float[] scratch;
+    private byte[] packed;
+    private String json;
+
+    @Setup
+    public void setUp() {
+        vector = SyntheticVectors.gaussian(SyntheticVectors.DIMENSION, 6L);
+        scratch = new float[vector.length];
+        packed = VectorCodec.encode(vector);
+        json = new JSONArray(vector).toString();
+    }
+
+    @Benchmark
+    public byte[] encodeBlob() {
+        return VectorCodec.encode(vector);
+    }
+
+    @Benchmark
+    public float[] decodeBlob() {
+        return VectorCodec.decode(packed);
+    }
+
+    @Benchmark
+    public float[] decodeBlobInto() {
+        VectorCodec.decodeInto(packed, scratch);
+        return scratch;
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return new JSONArray(vector).toString();
+    }
+
+    @Benchmark
+    public float[] decodeJson() {
+        JSONArray array = new JSONArray(json);
+        float[] decoded = new float[array.length()];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = array.getFloat(i);
+        }
+        return decoded;
+    }
+}
@@ -1,14 +1,29 @@
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.Reader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.example.AdaptiveEmbeddingScheduler;
+import org.example.ContextBuilder;
+import org.example.FloatVectorFile;
+import org.example.LexicalIndex;
+import org.example.Metrics;
+import org.example.OllamaEmbeddingClient;
+import org.example.OllamaGenerationClient;
+import org.example.ParallelExactSearch;
+import org.example.QuantizedVectorStore;
+import org.example.QueryService;
+import org.example.RecordStore;
+import org.example.TopK;
+import org.example.VectorSnapshot;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 
@@ -16,25 +31,59 @@ public class Main{
     private static final String BASE_URL = "http://localhost:11434";
     private static final String EMBEDDING_MODEL = "nomic-embed-text"; // Replace with the correct model name
     private static final String LLM_MODEL = "llama3.2"; // Replace with the correct LLM model name
+    private static final OllamaEmbeddingClient EMBEDDING_CLIENT =
+            new OllamaEmbeddingClient(BASE_URL, EMBEDDING_MODEL, Integer.getInteger("embed.batchSize", 64));
+    private static final OllamaGenerationClient LLM_CLIENT = new OllamaGenerationClient(BASE_URL, LLM_MODEL);
+    private static final long LLM_TIMEOUT_SECONDS = Long.getLong("llm.timeoutSeconds", 0);
+    private static final Path SNAPSHOT_PATH = Path.of(System.getProperty("vectors.snapshot", "vactorFood-vectors.snap"));
+    private static final int CONTEXT_TOKEN_BUDGET = Integer.getInteger("context.tokenBudget", 1500);
+    private static final int RERANK_FACTOR = Integer.getInteger("vectors.rerankFactor", 4);
+    // "quantized" (int8 scan plus re-ranking) or "exact"
+    private static final String SEARCH_MODE = System.getProperty("search.mode", "quantized");
+    private static final int SEARCH_PARALLELISM = Integer.getInteger("search.parallelism", Runtime.getRuntime().availableProcessors());
+    // Query words narrow the candidates only with -Dsearch.lexicalPrefilter=true; exclusions always apply
+    private static final boolean LEXICAL_PREFILTER = Boolean.getBoolean("search.lexicalPrefilter");
+    private static final AdaptiveEmbeddingScheduler EMBEDDING_SCHEDULER = new AdaptiveEmbeddingScheduler(EMBEDDING_CLIENT,
+            1, Integer.getInteger("embed.initialConcurrency", 4), Integer.getInteger("embed.maxConcurrency", 64));
+
+    private static final String CSV_PATH_1 = "/home/fatemeh/Downloads/FoodData_Central_csv_2024-10-31(1)/FoodData_Central_csv_2024-10-31/acquisition_samples.csv";
+    private static final String CSV_PATH_2 = "/home/fatemeh/Downloads/FoodData_Central_csv_2024-10-31(1)/FoodData_Central_csv_2024-10-31/agricultural_samples.csv";
+    private static final int TOP_K = 50;
+    // Keys collectUserInput fills in, also accepted as fields of a /suggest request
+    private static final List<String> USER_INPUT_FIELDS = List.of("availableFoods", "foodRestrictions", "dietType",
+            "allergies", "nutritionRestrictions", "spicyPreference", "mealType", "mealWeight", "cookingTime",
+            "cookingEquipment", "favoriteFoods", "tastePreference", "dislikedCombinations", "caloriePreference",
+            "proteinPreference", "fiberPreference", "foodCulture", "cuisinePreference");
+    private static final int SERVICE_PORT = Integer.getInteger("service.port", 8080);
+    private static final int SERVICE_WORKERS = Integer.getInteger("service.workers", Runtime.getRuntime().availableProcessors());
+    private static final int SERVICE_QUEUE_CAPACITY = Integer.getInteger("service.queueCapacity", 64);
+    private static final int SERVICE_DRAIN_SECONDS = Integer.getInteger("service.drainSeconds", 30);
+    private static final int SERVICE_MAX_REQUEST_BYTES = Integer.getInteger("service.maxRequestBytes", QueryService.DEFAULT_MAX_REQUEST_BYTES);
+    private static final int SEARCH_MAX_K = Integer.getInteger("search.maxK", 1000);
+
+    // Loaded once by openVectorStore and shared by every query. Snapshot row ids are record ids
+    // in records, which are also the lexical index's document numbers; exactly one of store
+    // and exactSearch is set, depending on search.mode.
+    private static RecordStore records;
+    private static LexicalIndex lexicalIndex;
+    private static VectorSnapshot snapshot;
+    private static QuantizedVectorStore store;
+    private static ParallelExactSearch exactSearch;
 
     public static void main(String[] args) {
+        QueryService.enableTcpNoDelay();
+        Metrics.startReporter(Long.getLong("metrics.reportSeconds", 0));
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : SERVICE_PORT);
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
 
         // Step 1: Collect user input
         Map<String, String> userInput = collectUserInput(scanner);
 
-// Step 2: Load CSV data
-        List<CSVRecord> csvData1 = loadCSV("/home/fatemeh/Downloads/FoodData_Central_csv_2024-10-31(1)/FoodData_Central_csv_2024-10-31/acquisition_samples.csv");
-        List<CSVRecord> csvData2= loadCSV("/home/fatemeh/Downloads/FoodData_Central_csv_2024-10-31(1)/FoodData_Central_csv_2024-10-31/agricultural_samples.csv");
-        // Step 3: Calculate embeddings for CSV data
-        Map<String, float[]> embeddingsMap1 = calculateEmbeddings(csvData1);
-        Map<String, float[]> embeddingsMap2 = calculateEmbeddings(csvData2);
-
-        // Combine embeddings into a single map
-        Map<String, float[]> allEmbeddings = new HashMap<>();
-        allEmbeddings.putAll(embeddingsMap1);
-        allEmbeddings.putAll(embeddingsMap2);
-
+        // Step 2: Embed the user input first; the vector store takes its dimension from it
         String userInputText = String.join(" ", userInput.values());
         float[] userEmbedding = new float[0];
         try {
@@ -44,30 +93,176 @@ public class Main{
             return;
         }
 
-        List<String> similarIds = findSimilarVectors(userEmbedding, allEmbeddings, 50);
-
-        String originalPrompt = generateOriginalPrompt(userInput);
-        Map<String, CSVRecord> recordsMap = new HashMap<>();
-        for (CSVRecord record : csvData1) recordsMap.put(generateKey(record), record);
-        for (CSVRecord record : csvData2) recordsMap.put(generateKey(record), record);
-        String enhancedPrompt = generateEnhancedPrompt(originalPrompt, similarIds, recordsMap);
-
         try {
-            String response = sendToLLM(enhancedPrompt);
-            System.out.println("Response from server: " + response);
+            // Step 3: Load the CSV data and its vectors
+            openVectorStore(userEmbedding.length);
+
+            // Step 4: Retrieve the closest records and ask the LLM
+            String enhancedPrompt = buildPrompt(userInput, userEmbedding);
+            System.out.println("Response from server: ");
+            sendToLLM(enhancedPrompt);
+        } catch (IOException e) {
+            System.err.println("Failed to load the vector store: " + e.getMessage());
         } catch (Exception e) {
             System.out.println("An error occurred: " + e.getMessage());
+        } finally {
+            scanner.close();
+            closeVectorStore();
+            EMBEDDING_SCHEDULER.close();
+            System.out.print(Metrics.report());
+        }
+    }
+
+    // Resident mode: loads the records and vectors once and answers /search and /suggest over
+    // local HTTP until the process is stopped, then drains in-flight requests
+    private static void serve(int port) {
+        try {
+            // The model decides the dimension; embed a probe to learn it before any request arrives
+            openVectorStore(getEmbedding("dimension probe").length);
+            QueryService service = new QueryService(port, SERVICE_WORKERS, SERVICE_QUEUE_CAPACITY, SERVICE_DRAIN_SECONDS,
+                    SERVICE_MAX_REQUEST_BYTES)
+                    .register("/search", Main::handleSearch)
+                    .register("/suggest", Main::handleSuggest);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                service.close();
+                System.out.println(service.report());
+                System.out.print(Metrics.report());
+                closeVectorStore();
+                EMBEDDING_SCHEDULER.close();
+            }));
+            service.start();
+            System.out.println("Query service listening on http://localhost:" + service.getPort() + " (/search, /suggest)");
+        } catch (IOException e) {
+            System.err.println("Failed to start the query service: " + e.getMessage());
+            closeVectorStore();
+            EMBEDDING_SCHEDULER.close();
+        }
+    }
+
+    // {"q": "...", "k": 10, "exclude": "nuts, dairy", "diet": "vegan"} -> {"results": [{"id", "score", "record": {column: value}}]}
+    private static JSONObject handleSearch(JSONObject request) throws IOException {
+        String query = request.optString("q", "");
+        if (query.isBlank()) {
+            throw new IllegalArgumentException("Missing query parameter q");
+        }
+        Set<String> exclude = new LinkedHashSet<>(LexicalIndex.exclusionTerms(request.optString("exclude", "")));
+        exclude.addAll(LexicalIndex.dietExclusions(request.optString("diet", "")));
+        List<Integer> similarRecords = new ArrayList<>();
+        float[] scores = findSimilar(getEmbedding(query), QueryService.k(request, TOP_K, SEARCH_MAX_K),
+                LexicalIndex.queryTerms(query), exclude, similarRecords);
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < similarRecords.size(); i++) {
+            JSONObject result = new JSONObject();
+            result.put("id", similarRecords.get(i));
+            result.put("score", scores[i]);
+            result.put("record", new JSONObject(records.toMap(similarRecords.get(i))));
+            results.put(result);
+        }
+        return new JSONObject().put("results", results);
+    }
+
+    // Body with the same fields the interactive prompt asks for (availableFoods, allergies, ...);
+    // missing fields are left blank
+    private static JSONObject handleSuggest(JSONObject request) throws IOException {
+        Map<String, String> userInput = new HashMap<>();
+        for (String field : USER_INPUT_FIELDS) {
+            userInput.put(field, request.optString(field, ""));
+        }
+        String prompt = buildPrompt(userInput, getEmbedding(String.join(" ", userInput.values())));
+        OllamaGenerationClient.Generation generation = LLM_CLIENT.generate(prompt, token -> { });
+        OllamaGenerationClient.Result result = generation.await(Duration.ofSeconds(LLM_TIMEOUT_SECONDS > 0 ? LLM_TIMEOUT_SECONDS : 120));
+        JSONObject response = new JSONObject();
+        response.put("suggestion", result.getText());
+        response.put("cancelled", result.isCancelled());
+        response.put("ttftMillis", result.getTimeToFirstTokenMillis());
+        response.put("tokensPerSecond", result.getTokensPerSecond());
+        return response;
+    }
+
+    // Opens the vector snapshot, or embeds the CSV data and writes one. Searching goes through
+    // the snapshot's mapped int8 codes and re-ranks against its full-precision vectors, or
+    // through a sharded exact scan with -Dsearch.mode=exact.
+    private static void openVectorStore(int dimension) throws IOException {
+        records = new RecordStore();
+        loadCSV(CSV_PATH_1, records);
+        loadCSV(CSV_PATH_2, records);
+        records.seal();
+        System.out.println("Loaded " + records.report());
+        lexicalIndex = new LexicalIndex();
+        for (int id = 0; id < records.size(); id++) {
+            lexicalIndex.add(id, records.text(id));
+        }
+
+        snapshot = loadOrBuildSnapshot(records, dimension, Path.of(CSV_PATH_1), Path.of(CSV_PATH_2));
+        if (Boolean.getBoolean("vectors.scalingReport")) {
+            System.out.println(ParallelExactSearch.scalingReport(snapshot, 20, TOP_K,
+                    new int[] {2, 4, 8, Runtime.getRuntime().availableProcessors()}));
+        }
+        if (SEARCH_MODE.equals("exact")) {
+            exactSearch = new ParallelExactSearch(SEARCH_PARALLELISM);
+        } else {
+            store = new QuantizedVectorStore(snapshot);
+            if (Boolean.getBoolean("vectors.recallReport")) {
+                System.out.println(store.recallReport(100, TOP_K, new int[] {1, 2, 4, 8}));
+            }
+        }
+    }
+
+    private static void closeVectorStore() {
+        try {
+            if (store != null) {
+                store.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to close the vector store: " + e.getMessage());
+        }
+        if (exactSearch != null) {
+            exactSearch.close();
+        }
+    }
+
+    // Vector scoring only sees the snapshot rows that survive the lexical pre-filter: rows that
+    // mention an excluded term are dropped, and with LEXICAL_PREFILTER, when the include terms
+    // match at least topK records, the search is narrowed to those
+    private static float[] findSimilar(float[] userEmbedding, int topK, Set<String> include, Set<String> exclude,
+                                       List<Integer> similar) {
+        if (!LEXICAL_PREFILTER) {
+            include = Set.of();
         }
+        BitSet allowed = include.isEmpty() && exclude.isEmpty() ? null : allowedRows(lexicalIndex.candidates(include, exclude, topK));
+        try (Metrics.Sample sample = Metrics.start("search.scan").items(allowed == null ? snapshot.size() : allowed.cardinality())) {
+            float[] scores = exactSearch != null
+                    ? findSimilarVectorsExact(userEmbedding, exactSearch, snapshot, topK, allowed, similar)
+                    : findSimilarVectors(userEmbedding, store, snapshot, topK, allowed, similar);
+            sample.succeeded();
+            return scores;
+        }
+    }
 
-        scanner.close();
+    // Record ids to snapshot rows; records that failed to embed have no row
+    private static BitSet allowedRows(BitSet allowedRecords) {
+        BitSet rows = new BitSet(snapshot.size());
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (allowedRecords.get(snapshot.rowId(row))) {
+                rows.set(row);
+            }
+        }
+        return rows;
     }
 
-    private static String generateKey(CSVRecord record) {
-        StringBuilder keyBuilder = new StringBuilder();
-        for (String value : record) {
-            keyBuilder.append(value).append("|");
+    // Allergies, food restrictions and the diet type become hard exclusions; the available
+    // ingredients and favourite foods narrow the candidates when LEXICAL_PREFILTER is on
+    private static String buildPrompt(Map<String, String> userInput, float[] userEmbedding) {
+        Set<String> include = LexicalIndex.queryTerms(userInput.get("availableFoods") + " " + userInput.get("favoriteFoods"));
+        Set<String> exclude = new LinkedHashSet<>(LexicalIndex.exclusionTerms(userInput.get("allergies"), userInput.get("foodRestrictions")));
+        exclude.addAll(LexicalIndex.dietExclusions(userInput.get("dietType")));
+        if (!exclude.isEmpty()) {
+            System.out.println("Excluding records that mention: " + String.join(", ", exclude));
         }
-        return keyBuilder.toString();
+        List<Integer> similarRecords = new ArrayList<>();
+        float[] similarScores = findSimilar(userEmbedding, TOP_K, include, exclude, similarRecords);
+        String originalPrompt = generateOriginalPrompt(userInput);
+        return generateEnhancedPrompt(originalPrompt, similarRecords, similarScores);
     }
 
     private static Map<String, String> collectUserInput(Scanner scanner) {
@@ -130,9 +325,11 @@ public class Main{
     }
 
 
-    private static List<CSVRecord> loadCSV(String filePath) {
-        List<CSVRecord> records = new ArrayList<>();
-        try (Reader reader = new FileReader(filePath)) {
+    // Appends the file's rows to records; only the parsed values are kept, not the CSVRecords
+    private static void loadCSV(String filePath, RecordStore records) {
+        int loaded = 0;
+        try (Metrics.Sample sample = Metrics.start("csv.read");
+             Reader reader = new FileReader(filePath)) {
             CSVFormat format = CSVFormat.DEFAULT
                     .withFirstRecordAsHeader()
                     .withIgnoreSurroundingSpaces(true)
@@ -140,111 +337,128 @@ public class Main{
                     .withIgnoreEmptyLines(true);
 
             CSVParser parser = new CSVParser(reader, format);
+            int[] columnIds = records.columns(parser.getHeaderNames());
 
             int lineNumber = 0;
             for (CSVRecord record : parser) {
                 lineNumber++;
                 try {
-                    records.add(record);
+                    records.add(columnIds, record.values());
+                    loaded++;
                 } catch (Exception ex) {
                     System.err.println("Skipping invalid record at line " + lineNumber + ": " + record);
                     ex.printStackTrace();
                 }
             }
+            sample.items(loaded).succeeded();
         } catch (IOException e) {
             System.err.println("Error reading CSV file: " + filePath);
             e.printStackTrace();
         }
-        return records;
     }
 
-    private static Map<String, float[]> calculateEmbeddings(List<CSVRecord> records) {
-        Map<String, float[]> embeddingsMap = new HashMap<>();
-        for (CSVRecord record : records) {
-            try {
-                String key = generateKey(record);
+    // Adds one vector per record to the store; the snapshot maps each row to its record id
+    private static VectorSnapshot loadOrBuildSnapshot(RecordStore records, int dimension, Path... sources) throws IOException {
+        // The tag retires snapshots embedded from CSVRecord.toString() before records.text() was used
+        byte[] fingerprint = VectorSnapshot.fingerprint(EMBEDDING_MODEL + "/record-text", sources);
+        VectorSnapshot snapshot = VectorSnapshot.openIfValid(SNAPSHOT_PATH, fingerprint);
+        if (snapshot != null && snapshot.dimension() == dimension) {
+            System.out.println("Loaded " + snapshot.size() + " vectors from " + SNAPSHOT_PATH);
+            return snapshot;
+        }
 
-                String text = record.toString();
-                float[] embedding = getEmbedding(text);
-                embeddingsMap.put(key, embedding);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        // Checked before embedding: a snapshot too large to write would be embedded again on every start
+        if (!VectorSnapshot.fits(records.size(), dimension)) {
+            throw new IOException(records.size() + " records of " + dimension + " dimensions do not fit in a vector snapshot (2 GB)");
+        }
+        System.out.println("Vector snapshot missing or out of date, embedding " + records.size() + " records");
+        Path vectorFile = Files.createTempFile("vactorFood", ".f32");
+        try (FloatVectorFile vectors = new FloatVectorFile(vectorFile, dimension)) {
+            int[] rowIds = calculateEmbeddings(records, vectors);
+            VectorSnapshot.write(SNAPSHOT_PATH, fingerprint, dimension, rowIds, vectorFile);
+        } finally {
+            Files.deleteIfExists(vectorFile);
+        }
+        snapshot = VectorSnapshot.openIfValid(SNAPSHOT_PATH, fingerprint);
+        if (snapshot == null) {
+            throw new IOException("Snapshot written to " + SNAPSHOT_PATH + " did not validate");
         }
-        return embeddingsMap;
+        return snapshot;
     }
 
-    private static float[] getEmbedding(String text) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) new URL(BASE_URL + "/api/embeddings").openConnection();
-        connection.setRequestMethod("POST");
-        connection.setDoOutput(true);
-        connection.setRequestProperty("Content-Type", "application/json");
-        JSONObject payload = new JSONObject();
-        payload.put("model", EMBEDDING_MODEL);
-        payload.put("input", text);
-        try (OutputStream os = connection.getOutputStream()) {
-            os.write(payload.toString().getBytes(StandardCharsets.UTF_8));
+    // Appends one vector per successfully embedded record and returns the record ids, row by row
+    private static int[] calculateEmbeddings(RecordStore records, FloatVectorFile vectors) {
+        // Records are sent in batches, each packed into one /api/embed request; the scheduler runs
+        // the batches concurrently under its adaptive limit
+        int batchSize = EMBEDDING_CLIENT.getBatchSize();
+        List<Future<List<float[]>>> futures = new ArrayList<>();
+        for (int start = 0; start < records.size(); start += batchSize) {
+            List<String> texts = new ArrayList<>(batchSize);
+            for (int id = start; id < Math.min(records.size(), start + batchSize); id++) {
+                texts.add(records.text(id));
+            }
+            futures.add(EMBEDDING_SCHEDULER.submit(texts));
         }
-        if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-            Scanner scanner = new Scanner(connection.getInputStream(), StandardCharsets.UTF_8);
-            StringBuilder responseBuilder = new StringBuilder();
-            while (scanner.hasNextLine()) {
-                responseBuilder.append(scanner.nextLine());
+        int[] rowIds = new int[records.size()];
+        int rows = 0;
+        for (int b = 0; b < futures.size(); b++) {
+            try {
+                List<float[]> embeddings = futures.get(b).get();
+                for (int i = 0; i < embeddings.size(); i++) {
+                    if (embeddings.get(i).length == vectors.dimension()) {
+                        vectors.append(embeddings.get(i));
+                        rowIds[rows++] = b * batchSize + i;
+                    } else {
+                        Metrics.count("embed.failed", 1);
+                    }
+                }
+            } catch (ExecutionException e) {
+                Metrics.count("embed.failed", Math.min(batchSize, records.size() - b * batchSize));
+                e.getCause().printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
-            scanner.close();
-            JSONObject responseJson = new JSONObject(responseBuilder.toString());
-            return parseEmbedding(responseJson);
-        } else {
-            throw new IOException("Failed to get embedding. Response code: " + connection.getResponseCode());
         }
+        return Arrays.copyOf(rowIds, rows);
     }
 
-    private static float[] parseEmbedding(JSONObject responseJson) {
-        List<Object> embeddingList = responseJson.getJSONArray("embedding").toList();
-        float[] embedding = new float[embeddingList.size()];
-        for (int i = 0; i < embeddingList.size(); i++) {
-            embedding[i] = ((Number) embeddingList.get(i)).floatValue();
-        }
-        return embedding;
+    private static float[] getEmbedding(String text) throws IOException {
+        return EMBEDDING_CLIENT.embed(text);
+    }
+    // Adds the best records to similar, best first, and returns their cosine similarities
+    private static float[] findSimilarVectors(float[] userEmbedding, QuantizedVectorStore store, VectorSnapshot snapshot,
+                                              int topK, BitSet allowed, List<Integer> similar) {
+        return collectHits(store.search(userEmbedding, topK, RERANK_FACTOR, allowed), snapshot, similar);
     }
-    private static List<String> findSimilarVectors(float[] userEmbedding, Map<String, float[]> embeddingsMap, int topK) {
-        Map<String, Double> similarityScores = new HashMap<>();
-        for (Map.Entry<String, float[]> entry : embeddingsMap.entrySet()) {
-            String id = entry.getKey();
-            float[] embedding = entry.getValue();
-            double similarity = cosineSimilarity(userEmbedding, embedding);
-            similarityScores.put(id, similarity);
-        }
-
-        List<Map.Entry<String, Double>> sortedEntries = new ArrayList<>(similarityScores.entrySet());
-        sortedEntries.sort((e1, e2) -> e2.getValue().compareTo(e1.getValue()));
 
-        List<String> topKIds = new ArrayList<>();
-        for (int i = 0; i < Math.min(topK, sortedEntries.size()); i++) {
-            topKIds.add(sortedEntries.get(i).getKey());
-        }
-        return topKIds;
+    // Exact cosine over every snapshot row, sharded across the search's fork/join pool
+    private static float[] findSimilarVectorsExact(float[] userEmbedding, ParallelExactSearch search, VectorSnapshot snapshot,
+                                                   int topK, BitSet allowed, List<Integer> similar) {
+        return collectHits(search.search(snapshot, userEmbedding, topK, allowed), snapshot, similar);
     }
 
-    private static double cosineSimilarity(float[] vectorA, float[] vectorB) {
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
-        for (int i = 0; i < vectorA.length; i++) {
-            dotProduct += vectorA[i] * vectorB[i];
-            normA += Math.pow(vectorA[i], 2);
-            normB += Math.pow(vectorB[i], 2);
+    private static float[] collectHits(TopK hits, VectorSnapshot snapshot, List<Integer> similar) {
+        for (int row : hits.ids()) {
+            similar.add(snapshot.rowId(row));
         }
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+        return hits.scores();
     }
 
-    private static String generateEnhancedPrompt(String originalPrompt, List<String> similarIds, Map<String, CSVRecord> recordsMap) {
+    // Only as many retrieved rows as fit in -Dcontext.tokenBudget are sent, best score first,
+    // projected to their useful columns and without near-duplicates
+    private static String generateEnhancedPrompt(String originalPrompt, List<Integer> similarRecords, float[] scores) {
+        ContextBuilder context = new ContextBuilder(CONTEXT_TOKEN_BUDGET);
         StringBuilder enhancedPrompt = new StringBuilder(originalPrompt);
-        enhancedPrompt.append("\n\nRelevant Data:\n");
-        for (String id : similarIds) {
-            CSVRecord record = recordsMap.get(id);
-            enhancedPrompt.append(record.toString()).append("\n");
+        try (Metrics.Sample sample = Metrics.start("prompt.build").items(similarRecords.size())) {
+            for (int i = 0; i < similarRecords.size(); i++) {
+                context.add(records.toMap(similarRecords.get(i)), scores[i]);
+            }
+            enhancedPrompt.append("\n\nRelevant Data:\n");
+            enhancedPrompt.append(context.build());
+            sample.succeeded();
         }
+        System.out.println(context.report());
         return enhancedPrompt.toString();
     }
 
@@ -280,35 +494,27 @@ public class Main{
         );
     }
 
-    private static String sendToLLM(String prompt) throws Exception {
-        HttpURLConnection connection = (HttpURLConnection) new URL(BASE_URL + "/api/generate").openConnection();
-        connection.setRequestMethod("POST");
-        connection.setDoOutput(true);
-        connection.setRequestProperty("Content-Type", "application/json");
-
-        JSONObject payload = new JSONObject();
-        payload.put("model", LLM_MODEL);
-        payload.put("prompt", prompt);
-
-        try (OutputStream os = connection.getOutputStream()) {
-            os.write(payload.toString().getBytes(StandardCharsets.UTF_8));
-        }
-
-        if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-            Scanner scanner = new Scanner(connection.getInputStream(), StandardCharsets.UTF_8);
-            StringBuilder responseBuilder = new StringBuilder();
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                JSONObject jsonObject = new JSONObject(line);
-                responseBuilder.append(jsonObject.getString("response"));
-                if (jsonObject.getBoolean("done")) {
-                    break;
-                }
+    // Prints the answer token by token as it streams in. Ctrl+C, or -Dllm.timeoutSeconds running
+    // out, cancels the request so Ollama stops generating as well.
+    private static String sendToLLM(String prompt) throws IOException {
+        OllamaGenerationClient.Generation generation = LLM_CLIENT.generate(prompt, token -> {
+            System.out.print(token);
+            System.out.flush();
+        });
+        Thread cancelOnExit = new Thread(generation::cancel);
+        Runtime.getRuntime().addShutdownHook(cancelOnExit);
+        OllamaGenerationClient.Result result;
+        try {
+            result = LLM_TIMEOUT_SECONDS > 0 ? generation.await(Duration.ofSeconds(LLM_TIMEOUT_SECONDS)) : generation.await();
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(cancelOnExit);
+            } catch (IllegalStateException e) {
+                // Already shutting down
             }
-            scanner.close();
-            return responseBuilder.toString();
-        } else {
-            throw new RuntimeException("Failed to send request. Response code: " + connection.getResponseCode());
         }
+        System.out.println();
+        System.out.println(result);
+        return result.getText();
     }
 }